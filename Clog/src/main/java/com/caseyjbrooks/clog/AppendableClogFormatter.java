@@ -0,0 +1,22 @@
+package com.caseyjbrooks.clog;
+
+import java.io.IOException;
+
+/**
+ * Denotes a ClogFormatter which can also write its output directly to an Appendable. Formatters which only implement
+ * ClogFormatter are still written to an Appendable by the profile, by appending the String they return.
+ */
+public interface AppendableClogFormatter extends ClogFormatter {
+
+    /**
+     * Transform a String containing markup using the optional provided params, writing the rendered output directly
+     * to 'output' rather than building an intermediate String
+     *
+     * @param output  where the rendered output is written
+     * @param message  a String containing markup
+     * @param params  params to pass to the String to be rendered
+     * @throws IOException  if 'output' cannot be written to
+     */
+    void format(Appendable output, String message, Object... params) throws IOException;
+
+}
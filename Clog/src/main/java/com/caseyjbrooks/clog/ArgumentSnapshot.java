@@ -0,0 +1,17 @@
+package com.caseyjbrooks.clog;
+
+/**
+ * Copies the arguments of a message before its formatting is deferred to another thread, for arguments which may change
+ * after they are logged. See {@link ClogProfile#setArgumentSnapshot(ArgumentSnapshot)}.
+ */
+public interface ArgumentSnapshot {
+
+    /**
+     * Copy the arguments of a message on the thread logging it
+     *
+     * @param args  the arguments of the message, which may be null
+     * @return  the arguments to format the message with later
+     */
+    Object[] snapshot(Object[] args);
+
+}
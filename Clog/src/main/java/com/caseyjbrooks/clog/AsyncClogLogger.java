@@ -0,0 +1,548 @@
+package com.caseyjbrooks.clog;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A ClogLogger which hands each message to a background thread, which passes it on to the wrapped logger, so that a slow
+ * logger does not hold up the threads logging to it. Messages are held in a bounded ring buffer of pre-allocated slots,
+ * which any number of threads claim without locking and a single consumer thread drains in order.
+ * <p>
+ * When the consumer thread has nothing to do it waits according to its {@link WaitStrategy}, and when the buffer is full
+ * new messages are handled according to its {@link OverflowPolicy}. Several loggers can share one buffer and consumer
+ * thread by wrapping them with {@link #wrap(ClogLogger)}, such as the loggers for each priority of a profile.
+ * <p>
+ * A profile can also hand messages to this logger unformatted, to be formatted on the consumer thread, with
+ * {@link ClogProfile#setDeferredFormatting(boolean)}.
+ * <p>
+ * Call {@link #flush()} to wait for the messages logged so far to be passed on, and {@link #shutdown()} to pass on all
+ * remaining messages and stop the consumer thread. Messages logged after shutting down are passed on from the calling
+ * thread. The buffer is also shut down when the JVM exits.
+ */
+public class AsyncClogLogger implements ClogLogger {
+
+    public static final int DEFAULT_BUFFER_SIZE = 1024;
+
+    /**
+     * How the consumer thread waits for new messages when the buffer is empty. Waiting more actively passes messages on
+     * sooner, at the cost of CPU time.
+     */
+    public enum WaitStrategy {
+        /** Check for new messages in a loop without ever giving up the CPU */
+        BUSY_SPIN,
+
+        /** Yield to other threads between checks for new messages */
+        YIELDING,
+
+        /** Spin, then yield, then sleep briefly between checks for new messages */
+        SLEEPING,
+
+        /** Sleep until a logging thread signals that a message is available */
+        BLOCKING
+    }
+
+    /**
+     * What to do with a new message when the buffer is full
+     */
+    public enum OverflowPolicy {
+        /** Wait until the consumer thread makes room for the message */
+        BLOCK,
+
+        /** Drop the new message */
+        DROP_NEWEST,
+
+        /** Drop the new message if its logger's priority is below the overflow priority, otherwise wait for room */
+        DROP_BELOW_PRIORITY
+    }
+
+    private final ClogLogger delegate;
+    private final RingBuffer ring;
+
+    /**
+     * Wrap a logger with a buffer of the default size, which sleeps while it is empty and blocks while it is full
+     *
+     * @param delegate  the logger to pass messages on to
+     */
+    public AsyncClogLogger(ClogLogger delegate) {
+        this(delegate, DEFAULT_BUFFER_SIZE, WaitStrategy.SLEEPING, OverflowPolicy.BLOCK, Clog.Priority.WARNING);
+    }
+
+    /**
+     * Wrap a logger with its own buffer and consumer thread
+     *
+     * @param delegate  the logger to pass messages on to
+     * @param bufferSize  the number of messages the buffer holds, which is rounded up to a power of two
+     * @param waitStrategy  how the consumer thread waits while the buffer is empty
+     * @param overflowPolicy  what to do with new messages while the buffer is full
+     * @param overflowPriority  with {@link OverflowPolicy#DROP_BELOW_PRIORITY}, the lowest priority of logger whose
+     *                          messages are kept while the buffer is full
+     */
+    public AsyncClogLogger(ClogLogger delegate, int bufferSize, WaitStrategy waitStrategy, OverflowPolicy overflowPolicy, Clog.Priority overflowPriority) {
+        this(delegate, new RingBuffer(bufferSize, waitStrategy, overflowPolicy, overflowPriority));
+    }
+
+    private AsyncClogLogger(ClogLogger delegate, RingBuffer ring) {
+        this.delegate = delegate;
+        this.ring = ring;
+    }
+
+    /**
+     * Wrap another logger, sharing this logger's buffer and consumer thread
+     *
+     * @param delegate  the logger to pass messages on to
+     * @return a logger passing its messages to 'delegate' through this logger's buffer
+     */
+    public AsyncClogLogger wrap(ClogLogger delegate) {
+        return new AsyncClogLogger(delegate, ring);
+    }
+
+    /**
+     * Get the logger messages are passed on to
+     *
+     * @return the wrapped logger
+     */
+    public ClogLogger getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public boolean isActive() {
+        return delegate.isActive();
+    }
+
+    @Override
+    public int log(String tag, String message) {
+        ring.publish(delegate, tag, null, message, null, null, false);
+        return 0;
+    }
+
+    @Override
+    public int log(String tag, String message, Throwable throwable) {
+        ring.publish(delegate, tag, null, message, null, throwable, true);
+        return 0;
+    }
+
+    /**
+     * Log a message which is formatted on the consumer thread just before it is passed on. If formatting fails, the
+     * unformatted message is passed on instead.
+     *
+     * @param tag  the tag of the message
+     * @param formatter  the formatter to format the message with
+     * @param message  the unformatted message
+     * @param args  the arguments of the message, which must not be changed afterwards
+     * @param throwable  an exception to log with the message, or null
+     * @return 0
+     */
+    public int logDeferred(String tag, ClogFormatter formatter, String message, Object[] args, Throwable throwable) {
+        ring.publish(delegate, tag, formatter, message, args, throwable, throwable != null);
+        return 0;
+    }
+
+    @Override
+    public Clog.Priority priority() {
+        return delegate.priority();
+    }
+
+    /**
+     * Wait until every message logged to this buffer before this call has been passed on
+     */
+    public void flush() {
+        ring.flush();
+    }
+
+    /**
+     * Pass on every message in this buffer, then stop its consumer thread. Messages logged afterwards are passed on
+     * from the thread logging them. Waits for the consumer thread to finish.
+     */
+    public void shutdown() {
+        ring.shutdown(0);
+    }
+
+    /**
+     * Pass on every message in this buffer, then stop its consumer thread, waiting at most the given time for it to
+     * finish
+     *
+     * @param timeout  the longest time to wait
+     * @param unit  the unit of 'timeout'
+     * @return true if the consumer thread finished in time
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) {
+        return ring.shutdown(Math.max(1, unit.toMillis(timeout)));
+    }
+
+    /**
+     * Get the number of messages dropped because this buffer was full
+     *
+     * @return the number of dropped messages
+     */
+    public long getDroppedCount() {
+        return ring.dropped.get();
+    }
+
+    // a pre-allocated slot of the ring buffer, which is only written by the thread which claimed it, and only read by
+    // the consumer thread after it has been published
+    private static final class Event {
+        ClogLogger logger;
+        String tag;
+        ClogFormatter formatter;
+        String message;
+        Object[] args;
+        Throwable throwable;
+        boolean hasThrowable;
+
+        void clear() {
+            logger = null;
+            tag = null;
+            formatter = null;
+            message = null;
+            args = null;
+            throwable = null;
+        }
+    }
+
+    private static final class RingBuffer implements Runnable {
+
+        private static final AtomicInteger threadCount = new AtomicInteger();
+
+        private static final long UNSET = Long.MIN_VALUE;
+
+        // returned instead of a claimed sequence
+        private static final long DROPPED = -1;
+        private static final long TERMINATED = -2;
+
+        private static final int SPIN_TRIES = 100;
+        private static final int YIELD_TRIES = 200;
+        private static final long SLEEP_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+        private static final long BLOCK_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+        // the longest the JVM waits on exit for a buffer to be passed on, so that a stuck logger cannot stop it exiting
+        private static final long SHUTDOWN_HOOK_TIMEOUT_MILLIS = 5000;
+
+        private final Event[] events;
+        private final int mask;
+
+        // the sequence of each slot's event once it is published, so the consumer can tell which slots are ready
+        private final AtomicLongArray published;
+
+        // the last sequence claimed by a logging thread, and the last sequence passed on by the consumer thread
+        private final AtomicLong cursor;
+        private final AtomicLong consumed;
+
+        private final AtomicLong dropped;
+
+        private final WaitStrategy waitStrategy;
+        private final OverflowPolicy overflowPolicy;
+        private final Clog.Priority overflowPriority;
+
+        private final ReentrantLock lock;
+        private final Condition available;
+        private volatile boolean consumerWaiting;
+
+        private final Thread consumerThread;
+        private final Thread shutdownHook;
+
+        // set when shutting down; the consumer sets 'terminated' once it stops taking new messages, and 'finalSequence'
+        // to the last sequence it passed on once it has passed on everything claimed before then
+        private volatile boolean closing;
+        private volatile boolean terminated;
+        private volatile long finalSequence = UNSET;
+
+        RingBuffer(int bufferSize, WaitStrategy waitStrategy, OverflowPolicy overflowPolicy, Clog.Priority overflowPriority) {
+            int capacity = 1;
+            while(capacity < bufferSize) {
+                capacity <<= 1;
+            }
+
+            this.events = new Event[capacity];
+            for(int i = 0; i < capacity; i++) {
+                events[i] = new Event();
+            }
+            this.mask = capacity - 1;
+
+            this.published = new AtomicLongArray(capacity);
+            for(int i = 0; i < capacity; i++) {
+                published.set(i, -1);
+            }
+
+            this.cursor = new AtomicLong(-1);
+            this.consumed = new AtomicLong(-1);
+            this.dropped = new AtomicLong();
+
+            this.waitStrategy = waitStrategy;
+            this.overflowPolicy = overflowPolicy;
+            this.overflowPriority = overflowPriority;
+
+            this.lock = new ReentrantLock();
+            this.available = lock.newCondition();
+
+            this.consumerThread = new Thread(this, "Clog-AsyncClogLogger-" + threadCount.incrementAndGet());
+            this.consumerThread.setDaemon(true);
+            this.consumerThread.start();
+
+            this.shutdownHook = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    shutdown(SHUTDOWN_HOOK_TIMEOUT_MILLIS);
+                }
+            });
+            try {
+                Runtime.getRuntime().addShutdownHook(shutdownHook);
+            }
+            catch(Exception e) {
+                // the JVM is already shutting down, or hooks are not allowed
+            }
+        }
+
+        // a message with a formatter is formatted with its args just before it is passed on
+        void publish(ClogLogger logger, String tag, ClogFormatter formatter, String message, Object[] args, Throwable throwable, boolean hasThrowable) {
+            // once the consumer has stopped, or when the consumer itself logs, pass the message on right away
+            if(terminated || Thread.currentThread() == consumerThread) {
+                deliver(logger, tag, formatter, message, args, throwable, hasThrowable);
+                return;
+            }
+
+            long sequence = claim(logger);
+            if(sequence == DROPPED) {
+                dropped.incrementAndGet();
+                return;
+            }
+            else if(sequence == TERMINATED) {
+                deliver(logger, tag, formatter, message, args, throwable, hasThrowable);
+                return;
+            }
+
+            Event event = events[(int) (sequence & mask)];
+            event.logger = logger;
+            event.tag = tag;
+            event.formatter = formatter;
+            event.message = message;
+            event.args = args;
+            event.throwable = throwable;
+            event.hasThrowable = hasThrowable;
+            published.lazySet((int) (sequence & mask), sequence);
+
+            if(waitStrategy == WaitStrategy.BLOCKING && consumerWaiting) {
+                signalConsumer();
+            }
+
+            // the consumer may have stopped after this sequence was claimed. It passes on everything up to the final
+            // sequence, and anything after that must be passed on here.
+            if(terminated) {
+                long last;
+                while((last = finalSequence) == UNSET) {
+                    Thread.yield();
+                }
+                if(sequence > last) {
+                    deliver(logger, tag, formatter, message, args, throwable, hasThrowable);
+                }
+            }
+        }
+
+        // claim the next slot, waiting for room or dropping the message when the buffer is full. Once the consumer has
+        // stopped, the buffer will not make room again.
+        private long claim(ClogLogger logger) {
+            int tries = 0;
+
+            while(true) {
+                long current = cursor.get();
+                long next = current + 1;
+
+                if(next - events.length > consumed.get()) {
+                    if(shouldDrop(logger)) {
+                        return DROPPED;
+                    }
+                    else if(terminated) {
+                        return TERMINATED;
+                    }
+                    tries = idle(tries);
+                }
+                else if(cursor.compareAndSet(current, next)) {
+                    return next;
+                }
+            }
+        }
+
+        private boolean shouldDrop(ClogLogger logger) {
+            switch(overflowPolicy) {
+                case DROP_NEWEST:
+                    return true;
+                case DROP_BELOW_PRIORITY:
+                    Clog.Priority priority = (logger.priority() != null) ? logger.priority() : Clog.Priority.DEFAULT;
+                    return overflowPriority != null && priority.getPriority() < overflowPriority.getPriority();
+                case BLOCK:
+                default:
+                    return false;
+            }
+        }
+
+        @Override
+        public void run() {
+            long next = 0;
+            int tries = 0;
+
+            while(true) {
+                if(isPublished(next)) {
+                    consume(next++);
+                    tries = 0;
+                }
+                else if(closing && next > cursor.get()) {
+                    break;
+                }
+                else if(closing) {
+                    // a logging thread has claimed a slot but not published it yet
+                    Thread.yield();
+                }
+                else {
+                    tries = waitForEvents(next, tries);
+                }
+            }
+
+            // stop taking new messages, then pass on those claimed before logging threads could see that
+            terminated = true;
+            long last = cursor.get();
+            while(next <= last) {
+                if(isPublished(next)) {
+                    consume(next++);
+                }
+                else {
+                    Thread.yield();
+                }
+            }
+            finalSequence = last;
+        }
+
+        private boolean isPublished(long sequence) {
+            return published.get((int) (sequence & mask)) == sequence;
+        }
+
+        private void consume(long sequence) {
+            Event event = events[(int) (sequence & mask)];
+            deliver(event.logger, event.tag, event.formatter, event.message, event.args, event.throwable, event.hasThrowable);
+            event.clear();
+            consumed.lazySet(sequence);
+        }
+
+        private void deliver(ClogLogger logger, String tag, ClogFormatter formatter, String message, Object[] args, Throwable throwable, boolean hasThrowable) {
+            if(formatter != null) {
+                try {
+                    message = formatter.format(message, args);
+                }
+                catch(Throwable t) {
+                    // pass on the unformatted message rather than losing it
+                }
+            }
+
+            try {
+                if(hasThrowable) {
+                    logger.log(tag, message, throwable);
+                }
+                else {
+                    logger.log(tag, message);
+                }
+            }
+            catch(Throwable t) {
+                // a failing logger must not stop the consumer thread, and with it the messages to every other logger
+                // sharing this buffer
+            }
+        }
+
+        private int waitForEvents(long sequence, int tries) {
+            switch(waitStrategy) {
+                case BUSY_SPIN:
+                    return tries;
+                case YIELDING:
+                    Thread.yield();
+                    return tries;
+                case BLOCKING:
+                    lock.lock();
+                    try {
+                        consumerWaiting = true;
+                        if(!isPublished(sequence) && !closing) {
+                            available.awaitNanos(BLOCK_TIMEOUT_NANOS);
+                        }
+                    }
+                    catch(InterruptedException e) {
+                        // keep going until shut down
+                    }
+                    finally {
+                        consumerWaiting = false;
+                        lock.unlock();
+                    }
+                    return tries;
+                case SLEEPING:
+                default:
+                    return idle(tries);
+            }
+        }
+
+        // spin, then yield, then sleep
+        private int idle(int tries) {
+            if(tries < SPIN_TRIES) {
+                return tries + 1;
+            }
+            else if(tries < YIELD_TRIES) {
+                Thread.yield();
+                return tries + 1;
+            }
+            else {
+                LockSupport.parkNanos(SLEEP_NANOS);
+                return tries;
+            }
+        }
+
+        private void signalConsumer() {
+            lock.lock();
+            try {
+                available.signal();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        void flush() {
+            if(Thread.currentThread() == consumerThread) {
+                return;
+            }
+
+            long target = cursor.get();
+            int tries = 0;
+            while(consumed.get() < target && finalSequence == UNSET && consumerThread.isAlive()) {
+                tries = idle(tries);
+            }
+        }
+
+        boolean shutdown(long timeoutMillis) {
+            closing = true;
+            signalConsumer();
+            LockSupport.unpark(consumerThread);
+
+            if(Thread.currentThread() == consumerThread) {
+                return false;
+            }
+
+            try {
+                consumerThread.join(timeoutMillis);
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            if(Thread.currentThread() != shutdownHook) {
+                try {
+                    Runtime.getRuntime().removeShutdownHook(shutdownHook);
+                }
+                catch(Exception e) {
+                    // the JVM is already shutting down
+                }
+            }
+
+            return !consumerThread.isAlive();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.caseyjbrooks.clog;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe cache holding at most a fixed number of entries. When full, entries are evicted using a 'second
+ * chance' (CLOCK) policy, which approximates LRU without taking a lock on reads. Hit, miss and eviction counts are
+ * tracked so the cache can be sized for a given workload.
+ *
+ * @param <K>  the type of keys in the cache. Keys must not be null.
+ * @param <V>  the type of values in the cache. Values must not be null.
+ */
+public class BoundedCache<K, V> {
+
+    private final ConcurrentHashMap<K, Entry<V>> entries;
+    private final AtomicInteger size;
+    private volatile int maxSize;
+
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+
+    /**
+     * Create a new cache which holds at most 'maxSize' entries. A size of zero or less disables caching entirely.
+     *
+     * @param maxSize  the maximum number of entries to hold
+     */
+    public BoundedCache(int maxSize) {
+        this.entries = new ConcurrentHashMap<>();
+        this.size = new AtomicInteger();
+        this.maxSize = maxSize;
+
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.evictions = new AtomicLong();
+    }
+
+    /**
+     * Get the value cached at 'key', counting the lookup as a hit or a miss.
+     *
+     * @param key  the key to look up
+     * @return  the cached value, or null if it is not in the cache
+     */
+    public V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if(entry != null) {
+            hits.incrementAndGet();
+            if(!entry.referenced) {
+                entry.referenced = true;
+            }
+            return entry.value;
+        }
+        else {
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Add a value to the cache if there is not already one at 'key', evicting older entries as necessary to stay
+     * within the maximum size.
+     *
+     * @param key  the key to cache the value at
+     * @param value  the value to cache
+     * @return  the value now in the cache at 'key', which may have been put by another thread
+     */
+    public V put(K key, V value) {
+        if(maxSize <= 0) {
+            return value;
+        }
+
+        Entry<V> existing = entries.putIfAbsent(key, new Entry<>(value));
+        if(existing != null) {
+            return existing.value;
+        }
+
+        if(size.incrementAndGet() > maxSize) {
+            evict(key);
+        }
+
+        return value;
+    }
+
+    /**
+     * Remove the value at 'key' from the cache.
+     *
+     * @param key  the key to remove
+     */
+    public void remove(K key) {
+        if(entries.remove(key) != null) {
+            size.decrementAndGet();
+        }
+    }
+
+    /**
+     * Removes all entries from the cache. Statistics are not reset.
+     */
+    public void clear() {
+        Iterator<K> it = entries.keySet().iterator();
+        while(it.hasNext()) {
+            remove(it.next());
+        }
+    }
+
+    private void evict(K justAdded) {
+        // sweep the entries, giving recently-used entries a second chance by clearing their flag. Two full passes
+        // are always enough to find a victim, since the first pass clears every flag it skips.
+        for(int pass = 0; pass < 2 && size.get() > maxSize; pass++) {
+            Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator();
+            while(it.hasNext() && size.get() > maxSize) {
+                Map.Entry<K, Entry<V>> candidate = it.next();
+                if(candidate.getKey().equals(justAdded)) {
+                    continue;
+                }
+                if(candidate.getValue().referenced) {
+                    candidate.getValue().referenced = false;
+                    continue;
+                }
+                if(entries.remove(candidate.getKey(), candidate.getValue())) {
+                    size.decrementAndGet();
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the number of entries currently in the cache.
+     *
+     * @return  the number of entries in the cache
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Get the maximum number of entries this cache may hold.
+     *
+     * @return  the maximum size of the cache
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Set the maximum number of entries this cache may hold. A size of zero or less disables caching and clears any
+     * entries already in the cache.
+     *
+     * @param maxSize  the maximum size of the cache
+     */
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        if(maxSize <= 0) {
+            clear();
+        }
+        else if(size.get() > maxSize) {
+            evict(null);
+        }
+    }
+
+    /**
+     * Get the number of lookups which found a value in the cache.
+     *
+     * @return  the number of cache hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of lookups which did not find a value in the cache.
+     *
+     * @return  the number of cache misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Get the number of entries which have been removed to make room for newer ones.
+     *
+     * @return  the number of evictions
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        volatile boolean referenced;
+
+        Entry(V value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.caseyjbrooks.clog;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Iterator;
+
+/**
+ * Finds the simple name of the class that called into Clog, to use as the tag of messages logged without one. On Java 9
+ * and above the stack is walked lazily with StackWalker, stopping at the first frame outside of Clog, so the rest of
+ * the stack is never captured. StackWalker is only used through reflection, since this library is built for Java 7, and
+ * where it is not available (such as on Android) the stack is taken from a Throwable instead. Simple names are cached
+ * by their full class name.
+ */
+final class CallerFinder {
+
+    // the most frames to look through with StackWalker before giving up on finding a caller outside of Clog
+    private static final int MAX_FRAMES = 32;
+
+    private static final String UNKNOWN = "Unknown";
+
+    private static final BoundedCache<String, String> simpleNames = new BoundedCache<>(1024);
+
+    private static final StackWalkerSearch stackWalkerSearch = StackWalkerSearch.create();
+
+    private CallerFinder() {
+
+    }
+
+    /**
+     * Finds the external class name that directly called a Clog method.
+     *
+     * @param profile  the profile being logged to, which decides which classes are internal to Clog
+     * @return The simple class name of the external class that called a Clog method, or "Unknown" if the stack trace is
+     * empty. If every frame of the stack belongs to Clog, the last one is used.
+     */
+    static String findCallerClassName(ClogProfile profile) {
+        String className = null;
+
+        if(stackWalkerSearch != null) {
+            try {
+                className = stackWalkerSearch.find(profile);
+            }
+            catch(Exception e) {
+                className = findWithThrowable(profile);
+            }
+        }
+        else {
+            className = findWithThrowable(profile);
+        }
+
+        return (className != null) ? simpleName(className) : UNKNOWN;
+    }
+
+    private static String findWithThrowable(ClogProfile profile) {
+        String className = null;
+
+        // starting with the first frame's class name (this class), keep iterating until a frame of a class outside
+        // of Clog is found
+        for(StackTraceElement frame : new Throwable().getStackTrace()) {
+            className = frame.getClassName();
+            if(!isInternal(profile, className)) {
+                break;
+            }
+        }
+
+        return className;
+    }
+
+    private static boolean isInternal(ClogProfile profile, String className) {
+        return className.startsWith(CallerFinder.class.getName()) || profile.isClassnameInternal(className);
+    }
+
+    private static String simpleName(String className) {
+        String simpleName = simpleNames.get(className);
+
+        if(simpleName == null) {
+            simpleName = simpleNames.put(className, parseClassName(className));
+        }
+
+        return simpleName;
+    }
+
+    /**
+     * Parses the simple class name out of the full class name. If the formatting already
+     * looks like a simple class name, then just returns that. Copied from the Android
+     * Open Source Project LogUtil.java class.
+     *
+     * @param fullName the full class name to parse
+     * @return The simple class name
+     */
+    private static String parseClassName(String fullName) {
+        int lastdot = fullName.lastIndexOf('.');
+        String simpleName = fullName;
+        if (lastdot != -1) {
+            simpleName = fullName.substring(lastdot + 1);
+        }
+        // handle inner class names
+        int lastdollar = simpleName.lastIndexOf('$');
+        if (lastdollar != -1) {
+            simpleName = simpleName.substring(0, lastdollar);
+        }
+        return simpleName;
+    }
+
+    // Calls StackWalker.getInstance().walk(Function) reflectively, with the Function implemented by a Proxy. The same
+    // Proxy is used for every search, and since walk() calls it on the calling thread, the profile being searched for
+    // is passed to it through a ThreadLocal
+    private static final class StackWalkerSearch implements InvocationHandler {
+        private final Object stackWalker;
+        private final Method walk;
+        private final Method iterator;
+        private final Method getClassName;
+        private final Object function;
+        private final ThreadLocal<ClogProfile> searchedProfile;
+
+        private StackWalkerSearch(Object stackWalker, Method walk, Method iterator, Method getClassName, Class<?> functionClass) {
+            this.stackWalker = stackWalker;
+            this.walk = walk;
+            this.iterator = iterator;
+            this.getClassName = getClassName;
+            this.function = Proxy.newProxyInstance(CallerFinder.class.getClassLoader(), new Class<?>[] { functionClass }, this);
+            this.searchedProfile = new ThreadLocal<>();
+        }
+
+        static StackWalkerSearch create() {
+            try {
+                Class<?> stackWalkerClass = Class.forName("java.lang.StackWalker");
+                Class<?> stackFrameClass = Class.forName("java.lang.StackWalker$StackFrame");
+                Class<?> functionClass = Class.forName("java.util.function.Function");
+                Class<?> baseStreamClass = Class.forName("java.util.stream.BaseStream");
+
+                return new StackWalkerSearch(
+                        stackWalkerClass.getMethod("getInstance").invoke(null),
+                        stackWalkerClass.getMethod("walk", functionClass),
+                        baseStreamClass.getMethod("iterator"),
+                        stackFrameClass.getMethod("getClassName"),
+                        functionClass
+                );
+            }
+            catch(Exception e) {
+                return null;
+            }
+        }
+
+        String find(ClogProfile profile) throws Exception {
+            ClogProfile previous = searchedProfile.get();
+            searchedProfile.set(profile);
+
+            try {
+                return (String) walk.invoke(stackWalker, function);
+            }
+            finally {
+                if(previous != null) {
+                    searchedProfile.set(previous);
+                }
+                else {
+                    searchedProfile.remove();
+                }
+            }
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if(method.getName().equals("apply")) {
+                return findInStream(searchedProfile.get(), args[0]);
+            }
+            else if(method.getName().equals("equals")) {
+                return proxy == args[0];
+            }
+            else if(method.getName().equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            else {
+                return "StackWalkerSearch";
+            }
+        }
+
+        private String findInStream(ClogProfile profile, Object stream) throws Exception {
+            Iterator<?> frames = (Iterator<?>) iterator.invoke(stream);
+            String className = null;
+
+            for(int i = 0; i < MAX_FRAMES && frames.hasNext(); i++) {
+                className = (String) getClassName.invoke(frames.next());
+                if(!isInternal(profile, className)) {
+                    break;
+                }
+            }
+
+            return className;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.caseyjbrooks.clog;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Clog {
 
@@ -17,7 +18,7 @@ public class Clog {
         DEBUG(  KEY_D,   2),
         INFO(   KEY_I,   3),
         DEFAULT(null,    4),
-        WARNING(KEY_E,   5),
+        WARNING(KEY_W,   5),
         ERROR(  KEY_E,   6),
         FATAL(  KEY_WTF, 7);
 
@@ -48,39 +49,56 @@ public class Clog {
         }
     }
 
-    private static Map<String, ProfileSupplier> profileSuppliers;
-    private static Map<String, ClogProfile> profiles;
-    private static String currentProfileKey;
-    private static ClogProfile currentProfile;
+    // ConcurrentHashMap does not allow null keys, and null is the key of the default profile
+    private static final Object DEFAULT_PROFILE_KEY = new Object();
+
+    private static final ConcurrentHashMap<Object, ProfileSupplier> profileSuppliers = new ConcurrentHashMap<>();
+    private static volatile ConcurrentHashMap<Object, ClogProfile> profiles = new ConcurrentHashMap<>();
+
+    // the current profile is only switched while holding the lock, so each supplier is only asked for its profile once.
+    // Logging reads the current profile without locking.
+    private static final Object profileLock = new Object();
+    private static volatile ClogProfile currentProfile;
 
     static {
-        profileSuppliers = new HashMap<>();
-        profiles = new HashMap<>();
-        profiles.put(null, new ClogProfile());
+        ClogProfile defaultProfile = new ClogProfile();
+        profiles.put(DEFAULT_PROFILE_KEY, defaultProfile);
+        currentProfile = defaultProfile;
     }
 
     /**
-     * Get the instance of Clog to log to. If the instance is defined, use that profile, otherwise
-     * create a new default profile.
+     * Get the instance of Clog to log to, which is the profile chosen by the last call to
+     * {@link #setCurrentProfile(String)}, or the default profile.
      *
      * @return the current Clog profile instance
      */
     public static ClogProfile getInstance() {
-        if (currentProfile == null) {
-            if (profiles == null || profiles.get(currentProfileKey) == null) {
-                if (profileSuppliers != null && profileSuppliers.get(currentProfileKey) != null) {
-                    currentProfile = profileSuppliers.get(currentProfileKey).get();
-                    profiles.put(currentProfileKey, currentProfile);
-                }
-                else {
-                    currentProfile = new ClogProfile();
-                }
-            } else {
-                currentProfile = profiles.get(null);
+        return currentProfile;
+    }
+
+    private static Object profileKey(String key) {
+        return (key != null) ? key : DEFAULT_PROFILE_KEY;
+    }
+
+    // use the profile already created at 'key', otherwise create it from its supplier, otherwise use a new default
+    // profile which is not kept. Only called while holding the lock.
+    private static ClogProfile resolveProfile(String key) {
+        Object profileKey = profileKey(key);
+        ClogProfile profile = profiles.get(profileKey);
+
+        if (profile == null) {
+            ProfileSupplier supplier = profileSuppliers.get(profileKey);
+
+            if (supplier != null) {
+                profile = supplier.get();
+                profiles.put(profileKey, profile);
+            }
+            else {
+                profile = new ClogProfile();
             }
         }
 
-        return currentProfile;
+        return profile;
     }
 
 // Log messages with Clog
@@ -104,6 +122,54 @@ public class Clog {
         return getInstance().tag(tag);
     }
 
+    /**
+     * Get a logger which always logs to the current profile with the given tag. The logger stays with the profile that
+     * was current when it was created, so get a new one after switching profiles.
+     *
+     * @param tag the tag to use, which must not be null
+     * @return a logger for the tag
+     */
+    public static TaggedClog tagged(String tag) {
+        return getInstance().tagged(tag);
+    }
+
+// Check whether messages would be logged
+//--------------------------------------------------------------------------------------------------
+
+    /**
+     * Check whether a message sent to a logger in the current profile would be logged.
+     *
+     * @param logger the key of the logger to check
+     * @return false if a message to this logger would not be logged
+     */
+    public static boolean isLoggable(String logger) {
+        return getInstance().isLoggable(logger);
+    }
+
+    public static boolean isVerboseEnabled() {
+        return getInstance().isVerboseEnabled();
+    }
+
+    public static boolean isDebugEnabled() {
+        return getInstance().isDebugEnabled();
+    }
+
+    public static boolean isInfoEnabled() {
+        return getInstance().isInfoEnabled();
+    }
+
+    public static boolean isWarningEnabled() {
+        return getInstance().isWarningEnabled();
+    }
+
+    public static boolean isErrorEnabled() {
+        return getInstance().isErrorEnabled();
+    }
+
+    public static boolean isWtfEnabled() {
+        return getInstance().isWtfEnabled();
+    }
+
 // Generic key-valued logging calls
 //--------------------------------------------------------------------------------------------------
 
@@ -437,7 +503,7 @@ public class Clog {
      * @param clog the profile
      */
     public static void addProfile(String key, ProfileSupplier clog) {
-        profileSuppliers.put(key, clog);
+        profileSuppliers.put(profileKey(key), clog);
     }
 
     /**
@@ -446,18 +512,21 @@ public class Clog {
      * @param key the key of the profile to remove
      */
     public static void removeProfile(String key) {
-        profiles.remove(key);
+        profiles.remove(profileKey(key));
     }
 
     /**
-     * Keys the current profile to the one named 'key'
+     * Keys the current profile to the one named 'key'. The profile is fully created before it is made current, so
+     * messages logged from other threads go either to the previous profile or to this one.
      *
      * @param key the key of the profile to use
      */
     public static ClogProfile setCurrentProfile(String key) {
-        Clog.currentProfileKey = key;
-        Clog.currentProfile = profiles.get(key);
-        return getInstance();
+        synchronized (profileLock) {
+            ClogProfile profile = resolveProfile(key);
+            currentProfile = profile;
+            return profile;
+        }
     }
 
     /**
@@ -474,18 +543,34 @@ public class Clog {
     /**
      * Returns all currently configured profiles
      *
-     * @return the map of profiles
+     * @return a copy of the map of profiles
      */
     public static Map<String, ClogProfile> getProfiles() {
-        return profiles;
+        Map<String, ClogProfile> profilesCopy = new HashMap<>();
+
+        for (Map.Entry<Object, ClogProfile> profile : profiles.entrySet()) {
+            profilesCopy.put((profile.getKey() != DEFAULT_PROFILE_KEY) ? (String) profile.getKey() : null, profile.getValue());
+        }
+
+        return profilesCopy;
     }
 
     /**
-     * Set all profiles
+     * Set all profiles. The current profile is not changed until the next call to {@link #setCurrentProfile(String)}.
      *
      * @param profiles the profile set to use
      */
     public static void setAllProfiles(Map<String, ClogProfile> profiles) {
-        Clog.profiles = profiles;
+        ConcurrentHashMap<Object, ClogProfile> newProfiles = new ConcurrentHashMap<>();
+
+        for (Map.Entry<String, ClogProfile> profile : profiles.entrySet()) {
+            if (profile.getValue() != null) {
+                newProfiles.put(profileKey(profile.getKey()), profile.getValue());
+            }
+        }
+
+        synchronized (profileLock) {
+            Clog.profiles = newProfiles;
+        }
     }
 }
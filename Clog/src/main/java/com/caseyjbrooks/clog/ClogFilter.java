@@ -0,0 +1,256 @@
+package com.caseyjbrooks.clog;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable snapshot of a profile's configuration: its tag and logger whitelists and blacklists, held in hashed
+ * sets, its marker whitelist and blacklist, compiled into a single lookup of each listed marker's decision, its loggers
+ * and its minimum and maximum priority. The decision whether to log a message with a given tag to a given logger is
+ * cached, as is the logger for each key that passes the filters, and whether a logger handles a given marker. Whether
+ * a logger is active may change at any time, so it is checked for every message. A profile
+ * replaces its ClogFilter whenever its configuration changes, and the caches of the old filter are thrown away with it.
+ */
+final class ClogFilter {
+
+    private static final int DECISION_CACHE_SIZE = 1024;
+    private static final int MAX_LOGGABLE_KEYS = 256;
+
+    // ConcurrentHashMap does not allow null keys, and null is the key of the default logger
+    private static final Object DEFAULT_LOGGER_KEY = new Object();
+
+    // cached for a logger key which is filtered out, and always inactive
+    private static final ClogLogger NOT_LOGGABLE = new EmptyLogger();
+
+    private final Set<String> tagWhitelist;
+    private final Set<String> tagBlacklist;
+    private final Set<String> loggerWhitelist;
+    private final Set<String> loggerBlacklist;
+
+    // the decision for each marker in the marker whitelist or blacklist, and the decision for any other marker
+    private final Map<String, Boolean> markerDecisions;
+    private final boolean unlistedMarkerAllowed;
+
+    private final Map<String, ClogLogger> loggers;
+    private final boolean hasMarkerLoggers;
+    private final Clog.Priority minPriority;
+    private final Clog.Priority maxPriority;
+
+    private final BoundedCache<Decision, Boolean> decisions;
+    private final ConcurrentHashMap<Object, ClogLogger> loggableKeys;
+    private final BoundedCache<Decision, Boolean> markerLoggerDecisions;
+
+    ClogFilter(Collection<String> tagWhitelist, Collection<String> tagBlacklist, Collection<String> loggerWhitelist, Collection<String> loggerBlacklist,
+               Collection<String> markerWhitelist, Collection<String> markerBlacklist,
+               Map<String, ClogLogger> loggers, Clog.Priority minPriority, Clog.Priority maxPriority) {
+        this.tagWhitelist = new HashSet<>(tagWhitelist);
+        this.tagBlacklist = new HashSet<>(tagBlacklist);
+        this.loggerWhitelist = new HashSet<>(loggerWhitelist);
+        this.loggerBlacklist = new HashSet<>(loggerBlacklist);
+        this.markerDecisions = compileMarkerDecisions(markerWhitelist, markerBlacklist);
+        this.unlistedMarkerAllowed = markerWhitelist.isEmpty();
+        this.loggers = (loggers != null) ? new HashMap<>(loggers) : null;
+        this.hasMarkerLoggers = hasMarkerLoggers(loggers);
+        this.minPriority = minPriority;
+        this.maxPriority = maxPriority;
+        this.decisions = new BoundedCache<>(DECISION_CACHE_SIZE);
+        this.loggableKeys = new ConcurrentHashMap<>();
+        this.markerLoggerDecisions = new BoundedCache<>(DECISION_CACHE_SIZE);
+    }
+
+    // a whitelisted marker is allowed unless it is also blacklisted
+    private static Map<String, Boolean> compileMarkerDecisions(Collection<String> markerWhitelist, Collection<String> markerBlacklist) {
+        Map<String, Boolean> markerDecisions = new HashMap<>();
+
+        for(String marker : markerWhitelist) {
+            markerDecisions.put(marker, Boolean.TRUE);
+        }
+        for(String marker : markerBlacklist) {
+            markerDecisions.put(marker, Boolean.FALSE);
+        }
+
+        return markerDecisions;
+    }
+
+    private static boolean hasMarkerLoggers(Map<String, ClogLogger> loggers) {
+        if(loggers != null) {
+            for(ClogLogger logger : loggers.values()) {
+                if(logger instanceof ClogMarkerLogger) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Find the logger for a key, falling back to the default logger at the null key, or a new DefaultLogger if there
+     * is no default logger either.
+     *
+     * @param loggers  the loggers to choose from, which may be null
+     * @param logger  the key of the logger
+     * @return the logger to log to
+     */
+    static ClogLogger findLogger(Map<String, ClogLogger> loggers, String logger) {
+        ClogLogger currentLogger = null;
+
+        if (loggers != null) {
+            currentLogger = loggers.get(logger);
+
+            if (currentLogger == null) {
+                currentLogger = loggers.get(null);
+            }
+        }
+
+        return (currentLogger != null) ? currentLogger : new DefaultLogger();
+    }
+
+    /**
+     * Find the logger for a key among the loggers this filter was built with
+     *
+     * @param logger  the key of the logger
+     * @return the logger to log to
+     */
+    ClogLogger findLogger(String logger) {
+        return findLogger(loggers, logger);
+    }
+
+    /**
+     * Whether a message to this logger could be logged with some tag: the logger passes the logger whitelist and
+     * blacklist, its priority is within the minimum and maximum priority, and it is active.
+     *
+     * @param logger  the key of the logger
+     * @return false if no message to this logger would be logged
+     */
+    boolean isLoggable(String logger) {
+        Object key = (logger != null) ? logger : DEFAULT_LOGGER_KEY;
+        ClogLogger loggable = loggableKeys.get(key);
+
+        if(loggable == null) {
+            ClogLogger currentLogger = findLogger(loggers, logger);
+            loggable = (isLoggerAllowed(logger) && isPriorityAllowed(currentLogger)) ? currentLogger : NOT_LOGGABLE;
+
+            if(loggableKeys.size() < MAX_LOGGABLE_KEYS) {
+                loggableKeys.put(key, loggable);
+            }
+        }
+
+        return loggable.isActive();
+    }
+
+    boolean isPriorityAllowed(ClogLogger currentLogger) {
+        if(minPriority != null && currentLogger.priority().getPriority() < minPriority.getPriority()) {
+            return false;
+        }
+
+        if(maxPriority != null && currentLogger.priority().getPriority() > maxPriority.getPriority()) {
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Whether any tag filtering is done, in which case the tag of a message must be known before it can be filtered
+     *
+     * @return true if there is a tag whitelist or blacklist
+     */
+    boolean hasTagFilter() {
+        return tagWhitelist.size() > 0 || tagBlacklist.size() > 0;
+    }
+
+    boolean isTagAllowed(String tag) {
+        return !((tagWhitelist.size() > 0 && !tagWhitelist.contains(tag)) || (tagBlacklist.size() > 0 && tagBlacklist.contains(tag)));
+    }
+
+    boolean isLoggerAllowed(String logger) {
+        return !((loggerWhitelist.size() > 0 && !loggerWhitelist.contains(logger)) || (loggerBlacklist.size() > 0 && loggerBlacklist.contains(logger)));
+    }
+
+    /**
+     * Whether a message with this tag should be logged to this logger
+     *
+     * @param tag  the message's tag, or null if it is not known yet and there is no tag filter
+     * @param logger  the key of the logger
+     * @return true if the message passes all the filters
+     */
+    boolean isAllowed(String tag, String logger) {
+        Decision key = new Decision(tag, logger);
+        Boolean allowed = decisions.get(key);
+
+        if(allowed == null) {
+            allowed = decisions.put(key, (tag == null || isTagAllowed(tag)) && isLoggerAllowed(logger));
+        }
+
+        return allowed;
+    }
+
+    /**
+     * Whether a message with this marker should be logged to this logger: the marker passes the marker whitelist and
+     * blacklist, and the logger handles it if it is a {@link ClogMarkerLogger}. Messages without a marker are not
+     * filtered by marker.
+     *
+     * @param marker  the message's marker, or null if it has none
+     * @param logger  the key of the logger
+     * @return true if the message passes the marker filters
+     */
+    boolean isMarkerAllowed(String marker, String logger) {
+        if(marker == null) {
+            return true;
+        }
+
+        Boolean listed = markerDecisions.get(marker);
+        if(!((listed != null) ? listed : unlistedMarkerAllowed)) {
+            return false;
+        }
+
+        if(!hasMarkerLoggers) {
+            return true;
+        }
+
+        Decision key = new Decision(marker, logger);
+        Boolean allowed = markerLoggerDecisions.get(key);
+
+        if(allowed == null) {
+            ClogLogger currentLogger = findLogger(loggers, logger);
+            boolean handled = !(currentLogger instanceof ClogMarkerLogger) || ((ClogMarkerLogger) currentLogger).isMarkerLogged(marker);
+            allowed = markerLoggerDecisions.put(key, handled);
+        }
+
+        return allowed;
+    }
+
+    // the tag or marker of a message, and the logger it is sent to
+    private static final class Decision {
+        final String name;
+        final String logger;
+        final int hashCode;
+
+        Decision(String name, String logger) {
+            this.name = name;
+            this.logger = logger;
+            this.hashCode = 31 * ((name != null) ? name.hashCode() : 0) + ((logger != null) ? logger.hashCode() : 0);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof Decision)) {
+                return false;
+            }
+            Decision other = (Decision) o;
+            return hashCode == other.hashCode
+                    && ((name != null) ? name.equals(other.name) : other.name == null)
+                    && ((logger != null) ? logger.equals(other.logger) : other.logger == null);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.caseyjbrooks.clog;
+
+/**
+ * Denotes a ClogLogger which only handles some marked messages, such as messages logged through Clog4j with an SLF4J
+ * Marker. Messages without a marker are always handled.
+ */
+public interface ClogMarkerLogger extends ClogLogger {
+
+    /**
+     * Whether this logger handles messages with a given marker. The answer for each marker is cached until the
+     * profile's configuration changes, so it should not change while this logger is in use.
+     *
+     * @param marker  the marker of the message
+     * @return  whether messages with this marker should be logged by this logger
+     */
+    boolean isMarkerLogged(String marker);
+
+}
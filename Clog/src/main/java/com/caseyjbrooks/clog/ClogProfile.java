@@ -2,24 +2,40 @@ package com.caseyjbrooks.clog;
 
 import com.caseyjbrooks.clog.parseltongue.Parseltongue;
 
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.EmptyStackException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
 
 public class ClogProfile extends IClog {
 
+    private static final int TAGGED_CLOG_CACHE_SIZE = 1024;
+
     private Map<String, ClogLogger> loggers;
     private ClogFormatter formatter;
-    private String lastTag;
-    private String lastLog;
+    private volatile String lastTag;
+    private volatile String lastLog;
+
+    // off by default, so messages are formatted on the thread logging them
+    private volatile boolean deferredFormatting;
+    private volatile ArgumentSnapshot argumentSnapshot;
+
+    // the temporary tag and tag stack belong to the thread that set them, so concurrent logging calls never see each
+    // other's tags
+    private final ThreadLocal<TagState> tagState = new ThreadLocal<TagState>() {
+        @Override
+        protected TagState initialValue() {
+            return new TagState();
+        }
+    };
 
-    private String temporaryTag;
-    private Stack<String> tagStack;
+    // tags may be built at runtime, such as from SLF4J logger names, so only the most used TaggedClogs are kept
+    private final BoundedCache<String, TaggedClog> taggedClogs = new BoundedCache<>(TAGGED_CLOG_CACHE_SIZE);
 
     private List<String> tagWhitelist;
     private List<String> tagBlacklist;
@@ -27,6 +43,14 @@ public class ClogProfile extends IClog {
     private List<String> loggerWhitelist;
     private List<String> loggerBlacklist;
 
+    private List<String> markerWhitelist;
+    private List<String> markerBlacklist;
+
+    // the loggers, whitelists, blacklists and priorities are only changed while holding the lock, and every change
+    // publishes a new filter built from them, which the logging path checks before doing anything else
+    private final Object filterLock = new Object();
+    private volatile ClogFilter filter;
+
     private Clog.Priority minPriority;
     private Clog.Priority maxPriority;
 
@@ -34,8 +58,6 @@ public class ClogProfile extends IClog {
      * Initialize Clog with the default configuration, using a simple logger and the Parseltongue formatter
      */
     public ClogProfile() {
-        temporaryTag = null;
-        tagStack = new Stack<>();
         loggers = new HashMap<>();
         loggers.put(null,  new DefaultLogger(  Clog.Priority.DEFAULT));
         loggers.put(Clog.KEY_V, new DefaultLogger(  Clog.Priority.VERBOSE));
@@ -52,8 +74,13 @@ public class ClogProfile extends IClog {
         loggerWhitelist = new ArrayList<>();
         loggerBlacklist = new ArrayList<>();
 
+        markerWhitelist = new ArrayList<>();
+        markerBlacklist = new ArrayList<>();
+
         minPriority = null;
         maxPriority = null;
+
+        updateFilter();
     }
 
     /**
@@ -63,7 +90,6 @@ public class ClogProfile extends IClog {
      * @param formatter
      */
     public ClogProfile(Map<String, ClogLogger> loggers, ClogFormatter formatter) {
-        this.tagStack = new Stack<>();
         this.loggers = loggers;
         this.formatter = formatter;
 
@@ -73,8 +99,13 @@ public class ClogProfile extends IClog {
         loggerWhitelist = new ArrayList<>();
         loggerBlacklist = new ArrayList<>();
 
+        markerWhitelist = new ArrayList<>();
+        markerBlacklist = new ArrayList<>();
+
         minPriority = null;
         maxPriority = null;
+
+        updateFilter();
     }
 
 // Log messages with Clog
@@ -110,96 +141,89 @@ public class ClogProfile extends IClog {
         return formatter.format(message, args);
     }
 
-    public int loggerInternal(String logger, String message, Throwable throwable, Object... args) {
-        ClogLogger currentLogger = null;
-        String currentTag = getTag();
-        this.temporaryTag = null;
-        String currentMessage;
+    public void format(Appendable output, String message, Object... args) throws IOException {
+        ClogFormatter formatter = this.formatter;
 
-        // check tag against the whitelist and blacklist
-        boolean inWhitelist = false;
-        for(String whiteListedTag : tagWhitelist) {
-            if(currentTag.equals(whiteListedTag)) {
-                inWhitelist = true;
-                break;
-            }
+        if(formatter instanceof AppendableClogFormatter) {
+            ((AppendableClogFormatter) formatter).format(output, message, args);
         }
-
-        boolean inBlacklist = false;
-        for(String blackListedTag : tagBlacklist) {
-            if(currentTag.equals(blackListedTag)) {
-                inBlacklist = true;
-                break;
-            }
+        else {
+            output.append(formatter.format(message, args));
         }
+    }
+
+    public int loggerInternal(String logger, String message, Throwable throwable, Object... args) {
+        ClogFilter filter = this.filter;
+        TagState tags = tagState.get();
 
-        if((tagWhitelist.size() > 0 && !inWhitelist) || (tagBlacklist.size() > 0 && inBlacklist)) {
+        if(!filter.isLoggable(logger)) {
+            tags.temporaryTag = null;
             return 0;
         }
 
-        // get a logger to log to
-        if (loggers != null) {
-            if (loggers.containsKey(logger)) {
-                currentLogger = loggers.get(logger);
-            }
-
-            if (currentLogger == null) {
-                if (loggers.containsKey(null)) {
-                    currentLogger = loggers.get(null);
-                }
-            }
+        String currentTag = getTag(tags);
+        tags.temporaryTag = null;
 
-            if (currentLogger == null) {
-                currentLogger = new DefaultLogger();
-            }
-        } else {
-            currentLogger = new DefaultLogger();
+        // finding the caller's class name walks the stack, so it is put off until the message is known to be logged,
+        // unless it is needed now to filter by tag
+        if(currentTag == null && filter.hasTagFilter()) {
+            currentTag = findCallerClassName();
         }
 
-        // check logger against the whitelist, blacklist, and priority levels
-        inWhitelist = false;
-        for(String whiteListedLogger : loggerWhitelist) {
-            if(logger == null) {
-                if(whiteListedLogger == null) {
-                    inWhitelist = true;
-                    break;
-                }
-            }
-            else if(logger.equals(whiteListedLogger)) {
-                inWhitelist = true;
-                break;
-            }
+        if(!filter.isAllowed(currentTag, logger)) {
+            return 0;
         }
 
-        inBlacklist = false;
-        for(String blackListedLogger : loggerBlacklist) {
-            if(logger == null) {
-                if(blackListedLogger == null) {
-                    inBlacklist = true;
-                    break;
-                }
-            }
-            else if(logger.equals(blackListedLogger)) {
-                inBlacklist = true;
-                break;
-            }
-        }
+        return logTagged(filter, currentTag, logger, null, message, throwable, args);
+    }
 
-        if((loggerWhitelist.size() > 0 && !inWhitelist) || (loggerBlacklist.size() > 0 && inBlacklist)) {
-            return 0;
-        }
+    /**
+     * Check whether a message sent to a logger would be logged, so that building expensive arguments can be skipped
+     * when it would not. The logger must pass the logger whitelist and blacklist, be within the minimum and maximum
+     * priority, and be active. If this thread has set a tag with {@link #tag(String)} or {@link #pushTag(String)}, that
+     * tag must also pass the tag whitelist and blacklist. Otherwise the tag is assumed to pass, since finding the
+     * caller's class name is only worth doing once a message is actually logged.
+     *
+     * @param logger the key of the logger
+     * @return false if a message to this logger would not be logged
+     */
+    @Override
+    public boolean isLoggable(String logger) {
+        ClogFilter filter = this.filter;
 
-        if(minPriority != null && currentLogger.priority().getPriority() < minPriority.getPriority()) {
-            return 0;
+        if(!filter.isLoggable(logger)) {
+            return false;
         }
 
-        if(maxPriority != null && currentLogger.priority().getPriority() > maxPriority.getPriority()) {
-            return 0;
-        }
+        String currentTag = getTag(tagState.get());
+        return currentTag == null || filter.isAllowed(currentTag, logger);
+    }
+
+    ClogFilter getFilter() {
+        return filter;
+    }
+
+    // log a message which has already been checked by 'filter' against the tag and logger whitelists and blacklists and
+    // the priority levels. The message is delivered through the same filter's copy of the loggers, so a profile
+    // reconfigured in the meantime never delivers it to a logger it was not checked against. A null tag is replaced
+    // with the caller's class name if the message is logged, and a null formatter with this profile's.
+    int logTagged(ClogFilter filter, String currentTag, String logger, ClogFormatter messageFormatter, String message, Throwable throwable, Object[] args) {
+        String currentMessage;
+        ClogLogger currentLogger = filter.findLogger(logger);
 
         if (currentLogger.isActive()) {
+            if (currentTag == null) {
+                currentTag = findCallerClassName();
+            }
+
+            ClogFormatter currentFormatter = (messageFormatter != null) ? messageFormatter : formatter;
+
+            if (deferredFormatting && message != null && currentLogger instanceof AsyncClogLogger) {
+                return logDeferred((AsyncClogLogger) currentLogger, currentTag, currentFormatter, message, throwable, args);
+            }
+
             if (message != null) {
-                currentMessage = formatter.format(message, args);
+                currentMessage = currentFormatter.format(message, args);
             } else {
                 if (throwable != null) {
                     currentMessage = getStackTraceString(throwable);
@@ -222,11 +246,23 @@ public class ClogProfile extends IClog {
         return 0;
     }
 
+    // hand the unformatted message to an AsyncClogLogger to be formatted on its consumer thread. The last log is the
+    // unformatted message, since it is not formatted yet.
+    private int logDeferred(AsyncClogLogger currentLogger, String currentTag, ClogFormatter currentFormatter, String message, Throwable throwable, Object[] args) {
+        ArgumentSnapshot snapshot = argumentSnapshot;
+        Object[] currentArgs = (snapshot != null) ? snapshot.snapshot(args) : args;
+
+        lastTag = currentTag;
+        lastLog = message;
+        return currentLogger.logDeferred(currentTag, currentFormatter, message, currentArgs, throwable);
+    }
+
 // Configure Clog
 //--------------------------------------------------------------------------------------------------
 
     /**
-     * Get the loggers for the current profile
+     * Get the loggers for the current profile. Changes to the returned map only take effect through
+     * {@link #setLoggers(Map)}, {@link #addLogger(String, ClogLogger)} or {@link #removeLogger(String)}.
      *
      * @return the map of loggers
      */
@@ -249,7 +285,10 @@ public class ClogProfile extends IClog {
      * @param loggers the new map of loggers
      */
     public void setLoggers(Map<String, ClogLogger> loggers) {
-        this.loggers = loggers;
+        synchronized (filterLock) {
+            this.loggers = loggers;
+            updateFilter();
+        }
     }
 
     /**
@@ -259,7 +298,30 @@ public class ClogProfile extends IClog {
      * @param logger the logger to add or replace
      */
     public void addLogger(String key, ClogLogger logger) {
-        this.loggers.put(key, logger);
+        synchronized (filterLock) {
+            this.loggers.put(key, logger);
+            updateFilter();
+        }
+    }
+
+    /**
+     * Log the messages for each of the keys to a file, replacing any existing loggers already set with those keys. Each
+     * key keeps the priority of the logger it replaces, or gets the priority matching the key if it had none, and every
+     * key shares the file and its rolling policy. To roll the file for each key independently, add a FileClogLogger with
+     * its own file for each key instead.
+     *
+     * @param fileLogger  the logger for the file to log to
+     * @param keys  the logger keys to log to the file
+     */
+    public void addFileLogger(FileClogLogger fileLogger, String... keys) {
+        synchronized (filterLock) {
+            for(String key : keys) {
+                ClogLogger existing = this.loggers.get(key);
+                Clog.Priority priority = (existing != null) ? existing.priority() : Clog.Priority.getByKey(key);
+                this.loggers.put(key, fileLogger.withPriority(priority));
+            }
+            updateFilter();
+        }
     }
 
     /**
@@ -268,7 +330,10 @@ public class ClogProfile extends IClog {
      * @param key the key mapping to the logger to be removed
      */
     public void removeLogger(String key) {
-        this.loggers.remove(key);
+        synchronized (filterLock) {
+            this.loggers.remove(key);
+            updateFilter();
+        }
     }
 
     /**
@@ -280,6 +345,36 @@ public class ClogProfile extends IClog {
         this.formatter = formatter;
     }
 
+    /**
+     * Set whether messages sent to an {@link AsyncClogLogger} are formatted on its consumer thread rather than on the
+     * thread logging them. The message, its arguments and its tag are handed to the logger as they are, so arguments
+     * which change after being logged may be formatted with their new values, unless an {@link ArgumentSnapshot} is
+     * set. Off by default.
+     *
+     * @param deferredFormatting  whether to defer formatting to asynchronous loggers
+     */
+    public void setDeferredFormatting(boolean deferredFormatting) {
+        this.deferredFormatting = deferredFormatting;
+    }
+
+    public boolean isDeferredFormatting() {
+        return this.deferredFormatting;
+    }
+
+    /**
+     * Set how the arguments of a message are copied before its formatting is deferred to an {@link AsyncClogLogger}.
+     * The snapshot is taken on the thread logging the message.
+     *
+     * @param argumentSnapshot  the snapshot to take, or null to hand the arguments over as they are
+     */
+    public void setArgumentSnapshot(ArgumentSnapshot argumentSnapshot) {
+        this.argumentSnapshot = argumentSnapshot;
+    }
+
+    public ArgumentSnapshot getArgumentSnapshot() {
+        return this.argumentSnapshot;
+    }
+
     /**
      * Get the Clog formatter implementation used in the current profile
      *
@@ -322,7 +417,10 @@ public class ClogProfile extends IClog {
      * @param tag  the tag to whitelist
      */
     public void addTagToWhitelist(String tag) {
-        this.tagWhitelist.add(tag);
+        synchronized (filterLock) {
+            this.tagWhitelist.add(tag);
+            updateFilter();
+        }
     }
 
     /**
@@ -332,21 +430,30 @@ public class ClogProfile extends IClog {
      * @param tag  the tag to blacklist
      */
     public void addTagToBlacklist(String tag) {
-        this.tagBlacklist.add(tag);
+        synchronized (filterLock) {
+            this.tagBlacklist.add(tag);
+            updateFilter();
+        }
     }
 
     /**
      * Clears the tag whitelist of all entries.
      */
     public void clearTagWhitelist() {
-        this.tagWhitelist.clear();
+        synchronized (filterLock) {
+            this.tagWhitelist.clear();
+            updateFilter();
+        }
     }
 
     /**
      * Clears the tag blacklist of all entries.
      */
     public void clearTagBlacklist() {
-        this.tagBlacklist.clear();
+        synchronized (filterLock) {
+            this.tagBlacklist.clear();
+            updateFilter();
+        }
     }
 
     /**
@@ -356,7 +463,10 @@ public class ClogProfile extends IClog {
      * @param tag  the tag to whitelist
      */
     public void addLoggerToWhitelist(String tag) {
-        this.loggerWhitelist.add(tag);
+        synchronized (filterLock) {
+            this.loggerWhitelist.add(tag);
+            updateFilter();
+        }
     }
 
     /**
@@ -366,21 +476,83 @@ public class ClogProfile extends IClog {
      * @param tag  the tag to blacklist
      */
     public void addLoggerToBlacklist(String tag) {
-        this.loggerBlacklist.add(tag);
+        synchronized (filterLock) {
+            this.loggerBlacklist.add(tag);
+            updateFilter();
+        }
     }
 
     /**
      * Clears the logger whitelist of all entries.
      */
     public void clearLoggerWhitelist() {
-        this.loggerWhitelist.clear();
+        synchronized (filterLock) {
+            this.loggerWhitelist.clear();
+            updateFilter();
+        }
     }
 
     /**
      * Clears the logger blacklist of all entries.
      */
     public void clearLoggerBlacklist() {
-        this.loggerBlacklist.clear();
+        synchronized (filterLock) {
+            this.loggerBlacklist.clear();
+            updateFilter();
+        }
+    }
+
+    /**
+     * Adds the marker to a whitelist. Only marked messages whose marker is in the whitelist will be logged. If the
+     * whitelist is empty, no marker whitelist filtering will be done. Messages without a marker are not filtered by
+     * marker.
+     *
+     * @param marker  the marker to whitelist
+     */
+    public void addMarkerToWhitelist(String marker) {
+        synchronized (filterLock) {
+            this.markerWhitelist.add(marker);
+            updateFilter();
+        }
+    }
+
+    /**
+     * Adds the marker to a blacklist. Only marked messages whose marker is not in the blacklist will be logged. If the
+     * blacklist is empty, no marker blacklist filtering will be done. Messages without a marker are not filtered by
+     * marker.
+     *
+     * @param marker  the marker to blacklist
+     */
+    public void addMarkerToBlacklist(String marker) {
+        synchronized (filterLock) {
+            this.markerBlacklist.add(marker);
+            updateFilter();
+        }
+    }
+
+    /**
+     * Clears the marker whitelist of all entries.
+     */
+    public void clearMarkerWhitelist() {
+        synchronized (filterLock) {
+            this.markerWhitelist.clear();
+            updateFilter();
+        }
+    }
+
+    /**
+     * Clears the marker blacklist of all entries.
+     */
+    public void clearMarkerBlacklist() {
+        synchronized (filterLock) {
+            this.markerBlacklist.clear();
+            updateFilter();
+        }
+    }
+
+    private void updateFilter() {
+        this.filter = new ClogFilter(tagWhitelist, tagBlacklist, loggerWhitelist, loggerBlacklist, markerWhitelist, markerBlacklist,
+                loggers, minPriority, maxPriority);
     }
 
     /**
@@ -389,7 +561,10 @@ public class ClogProfile extends IClog {
      * @param minPriority  the minimum priority to log
      */
     public void setMinPriority(Clog.Priority minPriority) {
-        this.minPriority = minPriority;
+        synchronized (filterLock) {
+            this.minPriority = minPriority;
+            updateFilter();
+        }
     }
 
     /**
@@ -398,138 +573,114 @@ public class ClogProfile extends IClog {
      * @param maxPriority  the maximum priority to log
      */
     public void setMaxPriority(Clog.Priority maxPriority) {
-        this.maxPriority = maxPriority;
+        synchronized (filterLock) {
+            this.maxPriority = maxPriority;
+            updateFilter();
+        }
     }
 
 // Set and get the default logger tag.
 //--------------------------------------------------------------------------------------------------
 
+    /**
+     * Set the tag to use for the next logging call made on this thread only.
+     *
+     * @param tag the tag to use
+     * @return this profile, to make the logging call on
+     */
     public ClogProfile tag(String tag) {
-        this.temporaryTag = tag;
+        tagState.get().temporaryTag = tag;
 
         return this;
     }
 
     /**
-     * Set the tag to use for subsequent logging calls. Be sure to push the tag as close the logging call as possible,
-     * and to pop this tag off the stack when finished.
+     * Get a logger which always logs with the given tag. Unlike {@link #tag(String)}, this does not change the state of
+     * the profile, so it can be kept in a static field and shared between threads. TaggedClogs are cached for the most
+     * used tags, but the same one is not always returned for a tag, so callers logging often should keep their own.
+     *
+     * @param tag the tag to use, which must not be null
+     * @return a logger for the tag, which logs to this profile
+     */
+    public TaggedClog tagged(String tag) {
+        TaggedClog taggedClog = taggedClogs.get(tag);
+
+        if(taggedClog == null) {
+            taggedClog = taggedClogs.put(tag, new TaggedClog(this, tag));
+        }
+
+        return taggedClog;
+    }
+
+    /**
+     * Set the tag to use for subsequent logging calls on this thread. Be sure to push the tag as close the logging call
+     * as possible, and to pop this tag off the stack when finished.
      *
      * @param tag the tag to use
      */
     public void pushTag(String tag) {
-        this.tagStack.push(tag);
+        tagState.get().tagStack.add(tag);
     }
 
     /**
-     * Remove the latest tag from the tag stack.
+     * Remove the latest tag from this thread's tag stack.
      */
     public void popTag() {
-        this.tagStack.pop();
+        ArrayList<String> tagStack = tagState.get().tagStack;
+
+        if(tagStack.isEmpty()) {
+            throw new EmptyStackException();
+        }
+
+        tagStack.remove(tagStack.size() - 1);
     }
 
     /**
      * Remove the current tag from the tag stack.
      */
     public String getCurrentTag() {
-        return getTag();
+        String tag = getTag(tagState.get());
+        return (tag != null) ? tag : findCallerClassName();
     }
 
     /**
      * Get the default tag in the current profile. If the default tag is defined, use that,
-     * otherwise attempt to find the caller simple class name and use that as the tag.
+     * otherwise the caller simple class name should be used as the tag, which is left for the caller
+     * to find only when it is needed.
      *
-     * @return the default tag
+     * @return the default tag, or null if the caller's class name should be used
      */
-    private String getTag() {
-        if (this.temporaryTag != null) {
-            return this.temporaryTag;
+    private String getTag(TagState tags) {
+        if (tags.temporaryTag != null) {
+            return tags.temporaryTag;
         }
-        else if (this.tagStack.size() > 0) {
-            return this.tagStack.peek();
+        else if (tags.tagStack.size() > 0) {
+            return tags.tagStack.get(tags.tagStack.size() - 1);
         }
         else {
-            return findCallerClassName();
+            return null;
         }
     }
 
     /**
-     * Finds the external class name that directly called a Clog method. Copied from the Android
-     * Open Source Project LogUtil.java class.
+     * Finds the external class name that directly called a Clog method.
      *
-     * @return The simple class name (or full-qualified if an error occurs getting a ref to
-     * the class) of the external class that called a CLog method, or "Unknown" if
-     * the stack trace is empty or only contains CLog class names.
+     * @return The simple class name of the external class that called a Clog method, or "Unknown" if
+     * the stack trace is empty.
      */
     private String findCallerClassName() {
-        return findCallerClassName(null);
-    }
-
-    /**
-     * Finds the external class name that directly called a CLog method. Copied from the Android
-     * Open Source Project LogUtil.java class.
-     *
-     * @param t (Optional) the stack trace to search within, exposed for unit testing
-     * @return The simple class name (or full-qualified if an error occurs getting a ref to
-     * the class) of the external class that called a CLog method, or "Unknown" if
-     * the stack trace is empty or only contains CLog class names.
-     */
-    private String findCallerClassName(Throwable t) {
-        String className = "Unknown";
-        if (t == null) {
-            t = new Throwable();
-        }
-        StackTraceElement[] frames = t.getStackTrace();
-        if (frames.length == 0) {
-            return className;
-        }
-        // starting with the first frame's class name (this CLog class)
-        // keep iterating until a frame of a different class name is found
-        int f;
-        for (f = 0; f < frames.length; f++) {
-            className = frames[f].getClassName();
-            if (!isClassnameInternal(className)) {
-                break;
-            }
-        }
-        return parseClassName(className);
-    }
-
-    /**
-     * Parses the simple class name out of the full class name. If the formatting already
-     * looks like a simple class name, then just returns that. Copied from the Android
-     * Open Source Project LogUtil.java class.
-     *
-     * @param fullName the full class name to parse
-     * @return The simple class name
-     */
-    private String parseClassName(String fullName) {
-        int lastdot = fullName.lastIndexOf('.');
-        String simpleName = fullName;
-        if (lastdot != -1) {
-            simpleName = fullName.substring(lastdot + 1);
-        }
-        // handle inner class names
-        int lastdollar = simpleName.lastIndexOf('$');
-        if (lastdollar != -1) {
-            simpleName = simpleName.substring(0, lastdollar);
-        }
-        return simpleName;
+        return CallerFinder.findCallerClassName(this);
     }
 
     protected boolean isClassnameInternal(String className) {
-        String[] classNames = new String[] {
-                Clog.class.getName(),
-                this.getClass().getName(),
-                ClogProfile.class.getName(),
-                IClog.class.getName()
-        };
-
-        for(String s : classNames) {
-            if(className.equals(s)) {
-                return true;
-            }
-        }
+        return className.equals(Clog.class.getName())
+                || className.equals(this.getClass().getName())
+                || className.equals(ClogProfile.class.getName())
+                || className.equals(IClog.class.getName());
+    }
 
-        return false;
+    private static final class TagState {
+        String temporaryTag;
+        final ArrayList<String> tagStack = new ArrayList<>();
     }
 }
@@ -0,0 +1,924 @@
+package com.caseyjbrooks.clog;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A ClogLogger which appends messages to a file, one line per message, in the following format:
+ *
+ * yyyy-MM-dd HH:mm:ss.SSS [LEVEL] Tag: Message
+ * <p>
+ * Lines are encoded as UTF-8 straight into large direct buffers, which a background thread writes to the file whenever
+ * one is full, and at least once every flush interval. Logging threads reserve room for their line in the current buffer
+ * with a single atomic add, so they encode their lines in parallel without locking, and never wait on the file unless
+ * every buffer is waiting to be written.
+ * <p>
+ * The file can be rolled over once it reaches a size or at a time boundary, as set by a {@link RollingPolicy}. The
+ * background thread renames the file to <code>file.000001</code>, <code>file.000002</code> and so on between writing
+ * buffers, so logging threads never wait for it. Rolled files are then compressed and pruned on another background
+ * thread, so the writer does not wait for that either.
+ * <p>
+ * Loggers for several priorities can share one file with {@link #withPriority(Clog.Priority)}, or be registered with a
+ * ClogProfile with {@link ClogProfile#addFileLogger(FileClogLogger, String...)}. Call {@link #flush()} to wait for
+ * everything logged so far to be written, and {@link #close()} to write everything and close the file. A file which is
+ * still open when the JVM exits is closed by a shutdown hook.
+ */
+public class FileClogLogger implements ClogLogger, Closeable {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+
+    /**
+     * When written data is forced to the storage device with fsync, rather than left for the operating system to write
+     */
+    public enum FsyncPolicy {
+        /** Never force data to the device, except when closing */
+        NEVER,
+
+        /** Force data to the device on every flush, whether periodic or from {@link #flush()} */
+        ON_FLUSH,
+
+        /** Force data to the device after every buffer is written */
+        EVERY_WRITE
+    }
+
+    /**
+     * When a file is rolled over, and which of the rolled files are kept. A limit of 0 is not applied.
+     */
+    public static final class RollingPolicy {
+
+        /** Never roll the file over */
+        public static final RollingPolicy NONE = new RollingPolicy(0, 0, false, 0, 0);
+
+        private final long maxFileSize;
+        private final long rollIntervalMillis;
+        private final boolean compress;
+        private final int maxFiles;
+        private final long maxTotalSize;
+
+        /**
+         * Create a rolling policy
+         *
+         * @param maxFileSize  the size a file may grow to before it is rolled over. A file can only grow larger when a
+         *                     single buffer is larger.
+         * @param rollIntervalMillis  roll the file over at each multiple of this interval in local time, so an interval
+         *                            of a day rolls the file over at midnight
+         * @param compress  whether to compress rolled files with gzip
+         * @param maxFiles  the number of rolled files to keep, deleting the oldest first
+         * @param maxTotalSize  the total size of rolled files to keep, deleting the oldest first
+         */
+        public RollingPolicy(long maxFileSize, long rollIntervalMillis, boolean compress, int maxFiles, long maxTotalSize) {
+            this.maxFileSize = maxFileSize;
+            this.rollIntervalMillis = rollIntervalMillis;
+            this.compress = compress;
+            this.maxFiles = maxFiles;
+            this.maxTotalSize = maxTotalSize;
+        }
+
+        public long getMaxFileSize() {
+            return maxFileSize;
+        }
+
+        public long getRollIntervalMillis() {
+            return rollIntervalMillis;
+        }
+
+        public boolean isCompress() {
+            return compress;
+        }
+
+        public int getMaxFiles() {
+            return maxFiles;
+        }
+
+        public long getMaxTotalSize() {
+            return maxTotalSize;
+        }
+
+        // the first interval boundary after 'millis', in local time
+        long nextRollMillis(long millis) {
+            if(rollIntervalMillis <= 0) {
+                return Long.MAX_VALUE;
+            }
+
+            long offset = TimeZone.getDefault().getOffset(millis);
+            return ((millis + offset) / rollIntervalMillis + 1) * rollIntervalMillis - offset;
+        }
+    }
+
+    private final LogFile logFile;
+    private final Clog.Priority priority;
+
+    /**
+     * Log to a file with the default buffer size and flush interval, leaving it to the operating system to write data
+     * to the device
+     *
+     * @param file  the file to append to, which is created if it does not exist
+     * @throws IOException  if the file cannot be opened
+     */
+    public FileClogLogger(File file) throws IOException {
+        this(file, Clog.Priority.DEFAULT, DEFAULT_BUFFER_SIZE, DEFAULT_FLUSH_INTERVAL_MILLIS, FsyncPolicy.NEVER);
+    }
+
+    /**
+     * Log to a file
+     *
+     * @param file  the file to append to, which is created if it does not exist
+     * @param priority  the priority of this logger
+     * @param bufferSize  the size of each buffer, and so the most data written to the file at once
+     * @param flushIntervalMillis  the longest time a line waits in a buffer before it is written
+     * @param fsyncPolicy  when to force written data to the device
+     * @throws IOException  if the file cannot be opened
+     */
+    public FileClogLogger(File file, Clog.Priority priority, int bufferSize, long flushIntervalMillis, FsyncPolicy fsyncPolicy) throws IOException {
+        this(file, priority, bufferSize, flushIntervalMillis, fsyncPolicy, RollingPolicy.NONE);
+    }
+
+    /**
+     * Log to a file which is rolled over
+     *
+     * @param file  the file to append to, which is created if it does not exist
+     * @param priority  the priority of this logger
+     * @param bufferSize  the size of each buffer, and so the most data written to the file at once
+     * @param flushIntervalMillis  the longest time a line waits in a buffer before it is written
+     * @param fsyncPolicy  when to force written data to the device
+     * @param rollingPolicy  when to roll the file over, and which rolled files to keep
+     * @throws IOException  if the file cannot be opened
+     */
+    public FileClogLogger(File file, Clog.Priority priority, int bufferSize, long flushIntervalMillis, FsyncPolicy fsyncPolicy, RollingPolicy rollingPolicy) throws IOException {
+        this(new LogFile(file, bufferSize, flushIntervalMillis, fsyncPolicy, rollingPolicy), priority);
+    }
+
+    private FileClogLogger(LogFile logFile, Clog.Priority priority) {
+        this.logFile = logFile;
+        this.priority = priority;
+    }
+
+    /**
+     * Get a logger with another priority which logs to the same file, sharing its buffers
+     *
+     * @param priority  the priority of the new logger
+     * @return a logger for 'priority' logging to this logger's file
+     */
+    public FileClogLogger withPriority(Clog.Priority priority) {
+        return new FileClogLogger(logFile, priority);
+    }
+
+    /**
+     * Get the policy for rolling over the file being logged to
+     *
+     * @return the rolling policy
+     */
+    public RollingPolicy getRollingPolicy() {
+        return logFile.rollingPolicy;
+    }
+
+    /**
+     * Get the file being logged to
+     *
+     * @return the file
+     */
+    public File getFile() {
+        return logFile.file;
+    }
+
+    @Override
+    public boolean isActive() {
+        return !logFile.closed;
+    }
+
+    @Override
+    public int log(String tag, String message) {
+        logFile.append(levelString(priority), String.valueOf(tag), String.valueOf(message), null);
+        return 0;
+    }
+
+    @Override
+    public int log(String tag, String message, Throwable throwable) {
+        logFile.append(levelString(priority), String.valueOf(tag), String.valueOf(message), (throwable != null) ? String.valueOf(throwable.getMessage()) : "null");
+        return 0;
+    }
+
+    @Override
+    public Clog.Priority priority() {
+        return priority;
+    }
+
+    /**
+     * Wait until everything logged to this file before this call has been written, and forced to the device unless the
+     * fsync policy is {@link FsyncPolicy#NEVER}
+     *
+     * @throws IOException  if the file could not be written to
+     */
+    public void flush() throws IOException {
+        logFile.flush();
+    }
+
+    /**
+     * Write everything logged to this file, force it to the device and close the file. Messages logged afterwards are
+     * ignored.
+     *
+     * @throws IOException  if the file could not be written to or closed
+     */
+    @Override
+    public void close() throws IOException {
+        logFile.close();
+    }
+
+    static String levelString(Clog.Priority priority) {
+        if(priority != null) {
+            switch (priority) {
+                case VERBOSE:
+                    return "[VERBOSE] ";
+                case DEBUG:
+                    return "[DEBUG] ";
+                case INFO:
+                    return "[INFO] ";
+                case WARNING:
+                    return "[WARN] ";
+                case ERROR:
+                    return "[ERROR] ";
+                case FATAL:
+                    return "[FATAL] ";
+                case DEFAULT:
+                default:
+                    return "";
+            }
+        }
+
+        return "";
+    }
+
+    // one of the direct buffers lines are encoded into. 'reserved' counts the bytes claimed by logging threads and
+    // 'committed' the bytes they have finished writing. A buffer is sealed by the thread whose reservation first goes
+    // past its end, and its limit is where that reservation started. Only the buffers are reused, each with a new
+    // Batch, so that a thread still holding a sealed batch can never reserve room in it again.
+    private static final class Batch {
+        final ByteBuffer buffer;
+        final int capacity;
+        final boolean pooled;
+        final AtomicInteger reserved;
+        final AtomicInteger committed;
+        volatile int limit;
+
+        Batch(ByteBuffer buffer, boolean pooled) {
+            this.buffer = buffer;
+            this.capacity = buffer.capacity();
+            this.pooled = pooled;
+            this.reserved = new AtomicInteger();
+            this.committed = new AtomicInteger();
+            this.limit = -1;
+        }
+    }
+
+    // the timestamp of the current second is formatted once per thread, and only the milliseconds for each line
+    private static final class Timestamp {
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        long second = -1;
+        String prefix;
+
+        String prefix(long millis) {
+            long currentSecond = millis / 1000;
+            if(currentSecond != second) {
+                second = currentSecond;
+                prefix = format.format(new Date(currentSecond * 1000));
+            }
+            return prefix;
+        }
+    }
+
+    // the layout of a line, encoded as UTF-8 straight into a buffer
+    static final class Line {
+
+        // the encoded length of ".SSS "
+        private static final int MILLIS_LENGTH = 5;
+
+        private static final ThreadLocal<Timestamp> timestamps = new ThreadLocal<Timestamp>() {
+            @Override
+            protected Timestamp initialValue() {
+                return new Timestamp();
+            }
+        };
+
+        private Line() {
+
+        }
+
+        // the timestamp up to the second, which is shared by each line logged during that second
+        static String timestamp(long millis) {
+            return timestamps.get().prefix(millis);
+        }
+
+        static int length(String timestamp, String level, String tag, String message, String throwableMessage) {
+            int length = Utf8.length(timestamp) + MILLIS_LENGTH + Utf8.length(level) + Utf8.length(tag) + 2 + Utf8.length(message) + 1;
+            if(throwableMessage != null) {
+                length += Utf8.length(throwableMessage) + 3;
+            }
+            return length;
+        }
+
+        static void encode(ByteBuffer buffer, int position, String timestamp, long millis, String level, String tag, String message, String throwableMessage) {
+            int millisOfSecond = (int) (millis % 1000);
+
+            position = Utf8.encode(buffer, position, timestamp);
+            buffer.put(position++, (byte) '.');
+            buffer.put(position++, (byte) ('0' + millisOfSecond / 100));
+            buffer.put(position++, (byte) ('0' + (millisOfSecond / 10) % 10));
+            buffer.put(position++, (byte) ('0' + millisOfSecond % 10));
+            buffer.put(position++, (byte) ' ');
+            position = Utf8.encode(buffer, position, level);
+            position = Utf8.encode(buffer, position, tag);
+            buffer.put(position++, (byte) ':');
+            buffer.put(position++, (byte) ' ');
+            position = Utf8.encode(buffer, position, message);
+            if(throwableMessage != null) {
+                buffer.put(position++, (byte) ' ');
+                buffer.put(position++, (byte) '(');
+                position = Utf8.encode(buffer, position, throwableMessage);
+                buffer.put(position++, (byte) ')');
+            }
+            buffer.put(position, (byte) '\n');
+        }
+    }
+
+    private static final class LogFile implements Runnable {
+
+        private static final AtomicInteger threadCount = new AtomicInteger();
+
+        private static final int BUFFER_COUNT = 4;
+
+        // queued after the last batch when closing, to stop the writer thread
+        private static final Batch END = new Batch(ByteBuffer.allocate(0), false);
+
+        // rolled files of every logger are compressed and pruned one at a time on a single thread
+        private static final ExecutorService housekeeper = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Clog-FileClogLogger-housekeeping");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        final File file;
+        private final long flushIntervalMillis;
+        private final FsyncPolicy fsyncPolicy;
+        final RollingPolicy rollingPolicy;
+
+        // the channel is only replaced by the writer thread while holding the lock, so that flushing never forces a
+        // channel which is being closed
+        private final Object channelLock = new Object();
+        private volatile FileChannel channel;
+
+        // only used by the writer thread
+        private final Pattern rolledPattern;
+        private long fileSize;
+        private long nextRollMillis;
+        private int rolledIndex;
+        private volatile Future<?> housekeeping;
+
+        private volatile Batch current;
+        private final BlockingQueue<ByteBuffer> freeBuffers;
+        private final BlockingQueue<Batch> fullBatches;
+
+        // the number of batches handed to the writer thread, and the number it has written
+        private final AtomicLong queuedCount;
+        private volatile long writtenCount;
+
+        private final Thread writerThread;
+        private final Thread shutdownHook;
+        volatile boolean closed;
+        private volatile IOException lastError;
+
+        LogFile(File file, int bufferSize, long flushIntervalMillis, FsyncPolicy fsyncPolicy, RollingPolicy rollingPolicy) throws IOException {
+            this.file = file.getAbsoluteFile();
+            this.channel = openChannel(this.file);
+            this.flushIntervalMillis = flushIntervalMillis;
+            this.fsyncPolicy = fsyncPolicy;
+            this.rollingPolicy = rollingPolicy;
+
+            this.rolledPattern = Pattern.compile(Pattern.quote(this.file.getName()) + "\\.(\\d+)(\\.gz)?");
+            this.fileSize = channel.size();
+            this.nextRollMillis = rollingPolicy.nextRollMillis(System.currentTimeMillis());
+            TreeMap<Integer, File> rolledFiles = rolledFiles();
+            this.rolledIndex = rolledFiles.isEmpty() ? 0 : rolledFiles.lastKey();
+
+            this.freeBuffers = new ArrayBlockingQueue<>(BUFFER_COUNT);
+            this.fullBatches = new LinkedBlockingQueue<>();
+            for(int i = 1; i < BUFFER_COUNT; i++) {
+                freeBuffers.add(ByteBuffer.allocateDirect(bufferSize));
+            }
+            this.current = new Batch(ByteBuffer.allocateDirect(bufferSize), true);
+
+            this.queuedCount = new AtomicLong();
+
+            this.writerThread = new Thread(this, "Clog-FileClogLogger-" + threadCount.incrementAndGet());
+            this.writerThread.setDaemon(true);
+            this.writerThread.start();
+
+            // the writer is a daemon thread, so the lines still in the buffers are written when the JVM exits
+            this.shutdownHook = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        close();
+                    }
+                    catch(IOException e) {
+                        // there is nowhere left to report it
+                    }
+                }
+            });
+            try {
+                Runtime.getRuntime().addShutdownHook(shutdownHook);
+            }
+            catch(Exception e) {
+                // the JVM is already shutting down, or hooks are not allowed
+            }
+        }
+
+        void append(String level, String tag, String message, String throwableMessage) {
+            if(closed) {
+                return;
+            }
+
+            long millis = System.currentTimeMillis();
+            String timestamp = Line.timestamp(millis);
+            int length = Line.length(timestamp, level, tag, message, throwableMessage);
+
+            while(true) {
+                Batch batch = current;
+                int start = batch.reserved.getAndAdd(length);
+
+                if(start + length <= batch.capacity) {
+                    Line.encode(batch.buffer, start, timestamp, millis, level, tag, message, throwableMessage);
+                    batch.committed.addAndGet(length);
+                    return;
+                }
+                else if(start <= batch.capacity) {
+                    // this reservation went past the end of the batch, so this thread seals it and moves on to the next
+                    rotate(batch, start, takeFreeBatch());
+
+                    if(length > batch.capacity) {
+                        // the line does not fit in any batch, so it gets one of its own
+                        Batch single = new Batch(ByteBuffer.allocate(length), false);
+                        Line.encode(single.buffer, 0, timestamp, millis, level, tag, message, throwableMessage);
+                        single.committed.set(length);
+                        single.limit = length;
+                        queue(single);
+                        return;
+                    }
+                }
+                else {
+                    // another thread is sealing this batch, so wait for it to move on to the next
+                    while(current == batch) {
+                        Thread.yield();
+                    }
+                }
+            }
+        }
+
+        // a batch must be taken to replace a sealed one, so an interrupt is only restored once one is free
+        private Batch takeFreeBatch() {
+            boolean interrupted = false;
+
+            try {
+                while(true) {
+                    try {
+                        return new Batch(freeBuffers.take(), true);
+                    }
+                    catch(InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            finally {
+                if(interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        // the sealed batch is queued before the next one becomes current, so batches are written in order
+        private void rotate(Batch batch, int limit, Batch next) {
+            batch.limit = limit;
+            queue(batch);
+            current = next;
+        }
+
+        private void queue(Batch batch) {
+            queuedCount.incrementAndGet();
+            fullBatches.add(batch);
+        }
+
+        // seal the current batch if it holds anything. The writer thread only seals it when a free batch is available,
+        // so that it never waits on itself.
+        private void sealCurrent(boolean wait) {
+            Batch batch = current;
+            if(batch.reserved.get() == 0) {
+                return;
+            }
+
+            Batch next;
+            if(wait) {
+                next = takeFreeBatch();
+            }
+            else {
+                ByteBuffer buffer = freeBuffers.poll();
+                if(buffer == null) {
+                    return;
+                }
+                next = new Batch(buffer, true);
+            }
+
+            int start = batch.reserved.getAndAdd(batch.capacity + 1);
+            if(start <= batch.capacity) {
+                rotate(batch, start, next);
+            }
+            else {
+                freeBuffers.add(next.buffer);
+            }
+        }
+
+        // the periodic flush runs once every interval whether or not batches keep arriving, so that a steady load of
+        // full batches does not put it off forever
+        @Override
+        public void run() {
+            boolean unsynced = false;
+            long nextFlushMillis = System.currentTimeMillis() + flushIntervalMillis;
+
+            while(true) {
+                Batch batch;
+                try {
+                    batch = fullBatches.poll(Math.max(0, nextFlushMillis - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                }
+                catch(InterruptedException e) {
+                    batch = null;
+                }
+
+                if(batch == END) {
+                    break;
+                }
+                else if(batch != null) {
+                    if(shouldRoll(batch.limit)) {
+                        roll();
+                    }
+                    write(batch);
+                    unsynced = true;
+
+                    if(fsyncPolicy == FsyncPolicy.EVERY_WRITE) {
+                        force();
+                        unsynced = false;
+                    }
+                }
+
+                long now = System.currentTimeMillis();
+                if(now >= nextFlushMillis) {
+                    if(shouldRoll(0)) {
+                        roll();
+                    }
+                    sealCurrent(false);
+
+                    if(fsyncPolicy == FsyncPolicy.ON_FLUSH && unsynced) {
+                        force();
+                        unsynced = false;
+                    }
+                    nextFlushMillis = now + flushIntervalMillis;
+                }
+            }
+        }
+
+        private void write(Batch batch) {
+            // wait for the threads which reserved room in this batch before it was sealed to finish encoding
+            while(batch.committed.get() != batch.limit) {
+                Thread.yield();
+            }
+
+            try {
+                ByteBuffer output = batch.buffer.duplicate();
+                output.position(0);
+                output.limit(batch.limit);
+                while(output.hasRemaining()) {
+                    channel.write(output);
+                }
+                fileSize += batch.limit;
+            }
+            catch(IOException e) {
+                lastError = e;
+            }
+
+            if(batch.pooled) {
+                freeBuffers.add(batch.buffer);
+            }
+            writtenCount++;
+        }
+
+        private void force() {
+            try {
+                channel.force(false);
+            }
+            catch(IOException e) {
+                lastError = e;
+            }
+        }
+
+        private static FileChannel openChannel(File file) throws IOException {
+            return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        // whether the file should be rolled over before writing 'length' more bytes to it. An empty file is never
+        // rolled over, but a time boundary passed while it is empty still counts as passed.
+        private boolean shouldRoll(int length) {
+            long now = System.currentTimeMillis();
+
+            if(fileSize == 0) {
+                if(now >= nextRollMillis) {
+                    nextRollMillis = rollingPolicy.nextRollMillis(now);
+                }
+                return false;
+            }
+
+            long maxFileSize = rollingPolicy.getMaxFileSize();
+            return (maxFileSize > 0 && fileSize + length > maxFileSize) || now >= nextRollMillis;
+        }
+
+        // the file is renamed and reopened between writing two batches, so logging threads never wait for it. The rolled
+        // file is compressed and old files pruned in the background.
+        private void roll() {
+            File rolled = new File(file.getParentFile(), String.format("%s.%06d", file.getName(), rolledIndex + 1));
+
+            synchronized (channelLock) {
+                try {
+                    if(fsyncPolicy != FsyncPolicy.NEVER) {
+                        channel.force(false);
+                    }
+                    channel.close();
+                    Files.move(file.toPath(), rolled.toPath());
+                    rolledIndex++;
+                }
+                catch(IOException e) {
+                    lastError = e;
+                    rolled = null;
+                }
+
+                try {
+                    channel = openChannel(file);
+                    fileSize = channel.size();
+                }
+                catch(IOException e) {
+                    lastError = e;
+                }
+            }
+
+            nextRollMillis = rollingPolicy.nextRollMillis(System.currentTimeMillis());
+
+            if(rolled != null) {
+                final File rolledFile = rolled;
+                final int index = rolledIndex;
+                housekeeping = housekeeper.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            if(rollingPolicy.isCompress()) {
+                                compress(rolledFile);
+                            }
+                            prune(index);
+                        }
+                        catch(IOException e) {
+                            lastError = e;
+                        }
+                    }
+                });
+            }
+        }
+
+        private static void compress(File rolled) throws IOException {
+            File compressed = new File(rolled.getPath() + ".gz");
+
+            try(InputStream input = Files.newInputStream(rolled.toPath());
+                OutputStream output = new GZIPOutputStream(Files.newOutputStream(compressed.toPath()))) {
+                byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+                int read;
+                while((read = input.read(buffer)) != -1) {
+                    output.write(buffer, 0, read);
+                }
+            }
+
+            Files.delete(rolled.toPath());
+        }
+
+        // delete the oldest rolled files until both the number of files and their total size are within the limits. Files
+        // rolled after 'index' are left for their own turn, as they may not have been compressed yet.
+        private void prune(int index) throws IOException {
+            int maxFiles = rollingPolicy.getMaxFiles();
+            long maxTotalSize = rollingPolicy.getMaxTotalSize();
+            if(maxFiles <= 0 && maxTotalSize <= 0) {
+                return;
+            }
+
+            int count = 0;
+            long totalSize = 0;
+            for(File rolled : rolledFiles().headMap(index, true).descendingMap().values()) {
+                count++;
+                totalSize += rolled.length();
+
+                if((maxFiles > 0 && count > maxFiles) || (maxTotalSize > 0 && totalSize > maxTotalSize)) {
+                    Files.deleteIfExists(rolled.toPath());
+                }
+            }
+        }
+
+        // the rolled files of this file by their index, whether or not they have been compressed yet
+        private TreeMap<Integer, File> rolledFiles() {
+            TreeMap<Integer, File> rolledFiles = new TreeMap<>();
+
+            File[] files = file.getParentFile().listFiles();
+            if(files != null) {
+                for(File rolled : files) {
+                    Matcher matcher = rolledPattern.matcher(rolled.getName());
+                    if(matcher.matches()) {
+                        rolledFiles.put(Integer.parseInt(matcher.group(1)), rolled);
+                    }
+                }
+            }
+
+            return rolledFiles;
+        }
+
+        void flush() throws IOException {
+            if(Thread.currentThread() == writerThread || closed) {
+                return;
+            }
+
+            sealCurrent(true);
+
+            long target = queuedCount.get();
+            while(writtenCount < target && writerThread.isAlive()) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+            }
+
+            if(fsyncPolicy != FsyncPolicy.NEVER) {
+                synchronized (channelLock) {
+                    channel.force(false);
+                }
+            }
+
+            throwLastError();
+        }
+
+        // lines logged while the file is being closed may be lost, and lines logged after it is closed are ignored. The
+        // last rolled file is compressed and pruned before returning.
+        void close() throws IOException {
+            synchronized (this) {
+                if(closed) {
+                    return;
+                }
+
+                closed = true;
+                sealCurrent(true);
+                fullBatches.add(END);
+
+                boolean interrupted = false;
+                while(writerThread.isAlive()) {
+                    try {
+                        writerThread.join();
+                    }
+                    catch(InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+
+                Future<?> pending = housekeeping;
+                while(pending != null) {
+                    try {
+                        pending.get();
+                        pending = null;
+                    }
+                    catch(InterruptedException e) {
+                        interrupted = true;
+                    }
+                    catch(ExecutionException e) {
+                        pending = null;
+                    }
+                }
+
+                if(interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+
+                channel.force(false);
+                channel.close();
+
+                if(Thread.currentThread() != shutdownHook) {
+                    try {
+                        Runtime.getRuntime().removeShutdownHook(shutdownHook);
+                    }
+                    catch(Exception e) {
+                        // the JVM is already shutting down
+                    }
+                }
+            }
+
+            throwLastError();
+        }
+
+        private void throwLastError() throws IOException {
+            IOException error = lastError;
+            if(error != null) {
+                lastError = null;
+                throw error;
+            }
+        }
+    }
+
+    // encodes Strings as UTF-8 directly into a ByteBuffer, replacing unpaired surrogates with '?' as String.getBytes()
+    // does
+    static final class Utf8 {
+
+        private Utf8() {
+
+        }
+
+        static int length(String value) {
+            int length = value.length();
+            int encodedLength = length;
+
+            for(int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if(c >= 0x80) {
+                    if(c < 0x800) {
+                        encodedLength += 1;
+                    }
+                    else if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                        // the pair of chars is encoded as 4 bytes
+                        encodedLength += 2;
+                        i++;
+                    }
+                    else if(!Character.isSurrogate(c)) {
+                        encodedLength += 2;
+                    }
+                }
+            }
+
+            return encodedLength;
+        }
+
+        static int encode(ByteBuffer buffer, int position, String value) {
+            int length = value.length();
+
+            for(int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+
+                if(c < 0x80) {
+                    buffer.put(position++, (byte) c);
+                }
+                else if(c < 0x800) {
+                    buffer.put(position++, (byte) (0xC0 | (c >> 6)));
+                    buffer.put(position++, (byte) (0x80 | (c & 0x3F)));
+                }
+                else if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    buffer.put(position++, (byte) (0xF0 | (codePoint >> 18)));
+                    buffer.put(position++, (byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                    buffer.put(position++, (byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                    buffer.put(position++, (byte) (0x80 | (codePoint & 0x3F)));
+                }
+                else if(Character.isSurrogate(c)) {
+                    buffer.put(position++, (byte) '?');
+                }
+                else {
+                    buffer.put(position++, (byte) (0xE0 | (c >> 12)));
+                    buffer.put(position++, (byte) (0x80 | ((c >> 6) & 0x3F)));
+                    buffer.put(position++, (byte) (0x80 | (c & 0x3F)));
+                }
+            }
+
+            return position;
+        }
+    }
+}
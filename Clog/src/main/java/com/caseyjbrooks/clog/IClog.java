@@ -4,6 +4,71 @@ public abstract class IClog {
 
     public abstract int loggerInternal(String logger, String message, Throwable throwable, Object... args);
 
+    /**
+     * Check whether a message sent to a logger would be logged, to avoid building expensive arguments for messages
+     * which would be dropped anyway.
+     *
+     * @param logger the key of the logger to check
+     * @return false if a message to this logger would not be logged
+     */
+    public boolean isLoggable(String logger) {
+        return true;
+    }
+
+    /**
+     * Check whether a message sent to the 'verbose' logger would be logged.
+     *
+     * @return false if a verbose message would not be logged
+     */
+    public boolean isVerboseEnabled() {
+        return isLoggable(Clog.KEY_V);
+    }
+
+    /**
+     * Check whether a message sent to the 'debug' logger would be logged.
+     *
+     * @return false if a debug message would not be logged
+     */
+    public boolean isDebugEnabled() {
+        return isLoggable(Clog.KEY_D);
+    }
+
+    /**
+     * Check whether a message sent to the 'info' logger would be logged.
+     *
+     * @return false if an info message would not be logged
+     */
+    public boolean isInfoEnabled() {
+        return isLoggable(Clog.KEY_I);
+    }
+
+    /**
+     * Check whether a message sent to the 'warning' logger would be logged.
+     *
+     * @return false if a warning message would not be logged
+     */
+    public boolean isWarningEnabled() {
+        return isLoggable(Clog.KEY_W);
+    }
+
+    /**
+     * Check whether a message sent to the 'error' logger would be logged.
+     *
+     * @return false if an error message would not be logged
+     */
+    public boolean isErrorEnabled() {
+        return isLoggable(Clog.KEY_E);
+    }
+
+    /**
+     * Check whether a message sent to the 'wtf' logger would be logged.
+     *
+     * @return false if a wtf message would not be logged
+     */
+    public boolean isWtfEnabled() {
+        return isLoggable(Clog.KEY_WTF);
+    }
+
     /**
      * Log a Throwable to a generic logger. Will print the stack trace of the throwable as the log
      * message, and use the default tag, which if not specified will be the calling class's simple name.
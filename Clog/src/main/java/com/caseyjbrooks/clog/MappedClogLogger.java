@@ -0,0 +1,544 @@
+package com.caseyjbrooks.clog;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A ClogLogger which appends messages to memory-mapped segment files, so that logging a message is a copy into memory
+ * rather than a write to the file. Each message is written as a record holding the same line as {@link FileClogLogger},
+ * prefixed with its length and a checksum.
+ * <p>
+ * Segments are named <code>name.000001.log</code>, <code>name.000002.log</code> and so on, and each is sized to the
+ * segment size when it is created. Logging threads reserve room for their record in the current segment with a single
+ * atomic add and write their records in parallel. The thread whose record does not fit in the current segment creates
+ * the next one and moves on to it. A background thread then waits for the records still being written to the full
+ * segment, forces it to the device and truncates its unused tail, so logging a message never waits for the device.
+ * <p>
+ * The length of a record is written after the rest of it, so if the process dies while logging, the records written so
+ * far can be recovered by reading up to the first incomplete one. Creating a MappedClogLogger for existing segments
+ * does this for the last segment, and carries on appending after its last complete record. Use
+ * {@link #readSegment(File)} to read the messages in a segment.
+ * <p>
+ * Loggers for several priorities can share the same segments with {@link #withPriority(Clog.Priority)}. Call
+ * {@link #flush()} to force every segment to the device, and {@link #close()} to truncate and close them. If a segment
+ * cannot be created the logger closes itself, and the records it could not write are counted by
+ * {@link #getDroppedRecords()}.
+ */
+public class MappedClogLogger implements ClogLogger, Closeable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    public static final int MAX_SEGMENT_SIZE = 1024 * 1024 * 1024;
+
+    // each record starts with the length of its line and a checksum of it, and records are aligned to 4 bytes so that
+    // these never straddle a page
+    private static final int HEADER_LENGTH = 8;
+
+    private final SegmentLog log;
+    private final Clog.Priority priority;
+
+    /**
+     * Log to memory-mapped segments of the default size
+     *
+     * @param directory  the directory holding the segments, which is created if it does not exist
+     * @param name  the name each segment file starts with
+     * @throws IOException  if the current segment cannot be opened
+     */
+    public MappedClogLogger(File directory, String name) throws IOException {
+        this(directory, name, Clog.Priority.DEFAULT, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Log to memory-mapped segments
+     *
+     * @param directory  the directory holding the segments, which is created if it does not exist
+     * @param name  the name each segment file starts with
+     * @param priority  the priority of this logger
+     * @param segmentSize  the size of each segment, up to {@link #MAX_SEGMENT_SIZE}. A message too long for a segment
+     *                     gets a larger segment of its own.
+     * @throws IOException  if the current segment cannot be opened
+     */
+    public MappedClogLogger(File directory, String name, Clog.Priority priority, int segmentSize) throws IOException {
+        this(new SegmentLog(directory, name, segmentSize), priority);
+    }
+
+    private MappedClogLogger(SegmentLog log, Clog.Priority priority) {
+        this.log = log;
+        this.priority = priority;
+    }
+
+    /**
+     * Get a logger with another priority which logs to the same segments
+     *
+     * @param priority  the priority of the new logger
+     * @return a logger for 'priority' logging to this logger's segments
+     */
+    public MappedClogLogger withPriority(Clog.Priority priority) {
+        return new MappedClogLogger(log, priority);
+    }
+
+    /**
+     * Get the segment currently being logged to
+     *
+     * @return the current segment file
+     */
+    public File getSegment() {
+        return log.current.file;
+    }
+
+    /**
+     * Get every segment of this logger, including segments left by earlier loggers with the same name
+     *
+     * @return the segment files, oldest first
+     */
+    public List<File> getSegments() {
+        return log.segments();
+    }
+
+    /**
+     * Get the number of records which were logged but could not be written, because the next segment could not be
+     * created or because they were logged while closing. Messages logged once closed are not counted.
+     *
+     * @return the number of records dropped since this logger's segments were opened
+     */
+    public long getDroppedRecords() {
+        return log.droppedRecords.get();
+    }
+
+    @Override
+    public boolean isActive() {
+        return !log.closed;
+    }
+
+    @Override
+    public int log(String tag, String message) {
+        log.append(FileClogLogger.levelString(priority), String.valueOf(tag), String.valueOf(message), null);
+        return 0;
+    }
+
+    @Override
+    public int log(String tag, String message, Throwable throwable) {
+        log.append(FileClogLogger.levelString(priority), String.valueOf(tag), String.valueOf(message), (throwable != null) ? String.valueOf(throwable.getMessage()) : "null");
+        return 0;
+    }
+
+    @Override
+    public Clog.Priority priority() {
+        return priority;
+    }
+
+    /**
+     * Wait for full segments to be forced to the device and closed, then force the records written to the current
+     * segment to the device.
+     *
+     * @throws IOException  if a segment could not be created or closed since the last flush
+     */
+    public void flush() throws IOException {
+        log.flush();
+    }
+
+    /**
+     * Wait for the records being written to the current segment, then force it to the device, truncate its unused tail
+     * and close it, along with any full segment which is not closed yet. Messages logged afterwards are ignored.
+     *
+     * @throws IOException  if a segment could not be created or closed
+     */
+    @Override
+    public void close() throws IOException {
+        log.close();
+    }
+
+    /**
+     * Read the messages in a segment, up to its first incomplete record
+     *
+     * @param segment  the segment file
+     * @return each complete line in the segment, without its line separator
+     * @throws IOException  if the segment cannot be read
+     */
+    public static List<String> readSegment(File segment) throws IOException {
+        List<String> lines = new ArrayList<>();
+
+        try(FileChannel channel = FileChannel.open(segment.toPath(), StandardOpenOption.READ)) {
+            if(channel.size() > 0) {
+                scan(channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), Integer.MAX_VALUE)), lines);
+            }
+        }
+
+        return lines;
+    }
+
+    // find the end of the last complete record, adding each complete line to 'lines' if it is not null
+    private static int scan(ByteBuffer buffer, List<String> lines) {
+        int position = 0;
+
+        while(position + HEADER_LENGTH <= buffer.limit()) {
+            int length = buffer.getInt(position);
+            if(length <= 0 || length > buffer.limit() - position - HEADER_LENGTH) {
+                break;
+            }
+            if(buffer.getInt(position + 4) != checksum(buffer, position + HEADER_LENGTH, length)) {
+                break;
+            }
+
+            if(lines != null) {
+                // the line separator is left out
+                byte[] line = new byte[length - 1];
+                ByteBuffer record = buffer.duplicate();
+                record.position(position + HEADER_LENGTH);
+                record.get(line);
+                lines.add(new String(line, StandardCharsets.UTF_8));
+            }
+
+            position += recordLength(length);
+        }
+
+        return position;
+    }
+
+    private static int recordLength(int lineLength) {
+        return (HEADER_LENGTH + lineLength + 3) & ~3;
+    }
+
+    // 32-bit FNV-1a, which is enough to tell a record that was only partly written when the process died
+    private static int checksum(ByteBuffer buffer, int position, int length) {
+        int hash = 0x811C9DC5;
+        for(int i = position; i < position + length; i++) {
+            hash = (hash ^ (buffer.get(i) & 0xFF)) * 0x01000193;
+        }
+        return hash;
+    }
+
+    // one segment file, mapped in full. 'reserved' counts the bytes claimed by logging threads and 'committed' the bytes
+    // of records they have finished writing. A segment is sealed by the thread whose reservation first goes past its end,
+    // and its limit is where that reservation started. Segments are never reused, so once sealed a segment stays sealed.
+    private static final class Segment {
+        final File file;
+        final int index;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        final int capacity;
+        final AtomicInteger reserved;
+        final AtomicInteger committed;
+        volatile int limit;
+        boolean finished;
+
+        // set when the next segment could not be created, so this one is the last
+        volatile boolean last;
+
+        Segment(File file, int index, FileChannel channel, int capacity, int start) throws IOException {
+            this.file = file;
+            this.index = index;
+            this.channel = channel;
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            this.capacity = capacity;
+            this.reserved = new AtomicInteger(start);
+            this.committed = new AtomicInteger(start);
+            this.limit = -1;
+        }
+    }
+
+    private static final class SegmentLog {
+
+        // full segments of every logger are finished one at a time on a single thread
+        private static final ExecutorService finisher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Clog-MappedClogLogger-finisher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        final File directory;
+        final String name;
+        final int segmentSize;
+        private final Pattern segmentPattern;
+
+        volatile Segment current;
+        volatile boolean closed;
+        private volatile IOException lastError;
+        final AtomicLong droppedRecords;
+
+        // full segments handed to the finisher, which flush() and close() wait for
+        private final Queue<Future<?>> finishing;
+
+        SegmentLog(File directory, String name, int segmentSize) throws IOException {
+            if(segmentSize <= HEADER_LENGTH || segmentSize > MAX_SEGMENT_SIZE) {
+                throw new IllegalArgumentException("segment size must be between " + (HEADER_LENGTH + 1) + " and " + MAX_SEGMENT_SIZE + " bytes");
+            }
+
+            this.directory = directory;
+            this.name = name;
+            this.segmentSize = segmentSize;
+            this.segmentPattern = Pattern.compile(Pattern.quote(name) + "\\.(\\d+)\\.log");
+            this.droppedRecords = new AtomicLong();
+            this.finishing = new ConcurrentLinkedQueue<>();
+
+            if(!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("could not create directory " + directory);
+            }
+
+            List<File> segments = segments();
+            if(segments.isEmpty()) {
+                this.current = openSegment(1, segmentSize);
+            }
+            else {
+                File last = segments.get(segments.size() - 1);
+                this.current = recoverSegment(last, segmentIndex(last));
+            }
+        }
+
+        List<File> segments() {
+            List<File> segments = new ArrayList<>();
+
+            File[] files = directory.listFiles();
+            if(files != null) {
+                Arrays.sort(files);
+                for(File file : files) {
+                    if(segmentIndex(file) > 0) {
+                        segments.add(file);
+                    }
+                }
+            }
+
+            return segments;
+        }
+
+        private int segmentIndex(File file) {
+            Matcher matcher = segmentPattern.matcher(file.getName());
+            return matcher.matches() ? Integer.parseInt(matcher.group(1)) : -1;
+        }
+
+        private Segment openSegment(int index, int capacity) throws IOException {
+            File file = new File(directory, String.format("%s.%06d.log", name, index));
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            return new Segment(file, index, channel, capacity, 0);
+        }
+
+        // carry on after the last complete record of a segment left by an earlier logger, which may have been cut short.
+        // Anything after that record is cut off, so that it cannot be mistaken for a record once it is written over.
+        private Segment recoverSegment(File file, int index) throws IOException {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                int end = 0;
+                if(channel.size() > 0) {
+                    end = scan(channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), MAX_SEGMENT_SIZE)), null);
+                }
+
+                if(end >= segmentSize) {
+                    channel.truncate(end);
+                    channel.close();
+                    return openSegment(index + 1, segmentSize);
+                }
+
+                channel.truncate(end);
+                return new Segment(file, index, channel, segmentSize, end);
+            }
+            catch(IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        void append(String level, String tag, String message, String throwableMessage) {
+            if(closed) {
+                return;
+            }
+
+            long millis = System.currentTimeMillis();
+            String timestamp = FileClogLogger.Line.timestamp(millis);
+            int lineLength = FileClogLogger.Line.length(timestamp, level, tag, message, throwableMessage);
+            int length = recordLength(lineLength);
+
+            while(true) {
+                Segment segment = current;
+                int start = segment.reserved.getAndAdd(length);
+
+                if(start + length <= segment.capacity) {
+                    write(segment, start, lineLength, length, timestamp, millis, level, tag, message, throwableMessage);
+                    return;
+                }
+                else if(start <= segment.capacity) {
+                    // this reservation went past the end of the segment, so this thread seals it and creates the next
+                    // one, with room for its record already reserved at the start. The sealed segment is finished in
+                    // the background, and handed over before moving on so that close() always finds it.
+                    Segment next;
+                    try {
+                        next = openSegment(segment.index + 1, Math.max(segmentSize, length));
+                    }
+                    catch(IOException e) {
+                        // there is nowhere left to log to, so this segment is the last one
+                        lastError = e;
+                        closed = true;
+                        droppedRecords.incrementAndGet();
+                        segment.limit = start;
+                        finishInBackground(segment);
+                        segment.last = true;
+                        return;
+                    }
+
+                    next.reserved.set(length);
+                    segment.limit = start;
+                    finishInBackground(segment);
+                    current = next;
+
+                    write(next, 0, lineLength, length, timestamp, millis, level, tag, message, throwableMessage);
+                    return;
+                }
+                else {
+                    // another thread is sealing this segment, so wait for it to move on to the next
+                    while(current == segment && !closed) {
+                        Thread.yield();
+                    }
+                    if(closed) {
+                        droppedRecords.incrementAndGet();
+                        return;
+                    }
+                }
+            }
+        }
+
+        // the length is written last, so that a record is only complete once the rest of it has been written
+        private static void write(Segment segment, int start, int lineLength, int length, String timestamp, long millis, String level, String tag, String message, String throwableMessage) {
+            MappedByteBuffer buffer = segment.buffer;
+            FileClogLogger.Line.encode(buffer, start + HEADER_LENGTH, timestamp, millis, level, tag, message, throwableMessage);
+            buffer.putInt(start + 4, checksum(buffer, start + HEADER_LENGTH, lineLength));
+            buffer.putInt(start, lineLength);
+            segment.committed.addAndGet(length);
+        }
+
+        private void finishInBackground(final Segment segment) {
+            finishing.add(finisher.submit(new Runnable() {
+                @Override
+                public void run() {
+                    finish(segment);
+                }
+            }));
+        }
+
+        // wait for the threads which reserved room in a sealed segment to finish writing, force it to the device, then cut
+        // off its unused tail. A sealed segment is no longer current, so flush() will not force it directly. Truncating
+        // is only tidying up, since reading stops at the unused tail anyway, so it may fail on platforms which cannot
+        // truncate a mapped file.
+        private void finish(Segment segment) {
+            while(segment.committed.get() != segment.limit) {
+                Thread.yield();
+            }
+
+            synchronized (segment) {
+                try {
+                    segment.buffer.force();
+                    try {
+                        segment.channel.truncate(segment.limit);
+                    }
+                    catch(IOException e) {
+                        // the unused tail stays in the file
+                    }
+                    segment.channel.close();
+                }
+                catch(IOException e) {
+                    lastError = e;
+                }
+                segment.finished = true;
+            }
+        }
+
+        // wait for every segment handed to the finisher so far
+        private void awaitFinishing() {
+            boolean interrupted = false;
+
+            Future<?> pending;
+            while((pending = finishing.peek()) != null) {
+                try {
+                    pending.get();
+                }
+                catch(InterruptedException e) {
+                    interrupted = true;
+                    continue;
+                }
+                catch(ExecutionException e) {
+                    // finish() records its own errors
+                }
+                finishing.remove(pending);
+            }
+
+            if(interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void flush() throws IOException {
+            awaitFinishing();
+
+            Segment segment = current;
+            synchronized (segment) {
+                if(!segment.finished) {
+                    segment.buffer.force();
+                }
+            }
+
+            throwLastError();
+        }
+
+        // records logged while closing may be lost, and messages logged once closed are ignored
+        void close() throws IOException {
+            synchronized (this) {
+                if(closed) {
+                    throwLastError();
+                    return;
+                }
+
+                closed = true;
+                while(true) {
+                    Segment segment = current;
+                    int start = segment.reserved.getAndAdd(segment.capacity + 1);
+                    if(start <= segment.capacity) {
+                        segment.limit = start;
+                        finish(segment);
+                        break;
+                    }
+
+                    // another thread is sealing this segment, so wait for it to move on to the next. If it could not create
+                    // the next segment, it has already closed this one.
+                    while(current == segment && !segment.last) {
+                        Thread.yield();
+                    }
+                    if(segment.last) {
+                        break;
+                    }
+                }
+
+                awaitFinishing();
+            }
+
+            throwLastError();
+        }
+
+        private void throwLastError() throws IOException {
+            IOException error = lastError;
+            if(error != null) {
+                lastError = null;
+                throw error;
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.caseyjbrooks.clog;
+
+/**
+ * An immutable logger which logs every message to a {@link ClogProfile} with the same tag. Get one with
+ * {@link ClogProfile#tagged(String)} or {@link Clog#tagged(String)}, and keep it for as long as you like: it is safe to
+ * share between threads, and whether its tag passes the profile's tag whitelist and blacklist is only checked again
+ * after the profile's filters change.
+ */
+public final class TaggedClog extends IClog {
+
+    private final ClogProfile profile;
+    private final String tag;
+
+    // replaced whole whenever it is out of date, so it is safe to read without synchronization
+    private TagDecision tagDecision;
+
+    TaggedClog(ClogProfile profile, String tag) {
+        this.profile = profile;
+        this.tag = tag;
+    }
+
+    /**
+     * Get the tag this logger logs with
+     *
+     * @return the tag
+     */
+    public String getTag() {
+        return tag;
+    }
+
+    /**
+     * Get the profile this logger logs to
+     *
+     * @return the profile
+     */
+    public ClogProfile getProfile() {
+        return profile;
+    }
+
+    @Override
+    public int loggerInternal(String logger, String message, Throwable throwable, Object... args) {
+        return loggerWithFormatter(logger, null, message, throwable, args);
+    }
+
+    /**
+     * Log a message formatted by the given formatter instead of the profile's own, such as for messages written for
+     * another logging library's syntax. The message is only formatted if it is actually logged.
+     *
+     * @param logger  the key of the logger
+     * @param messageFormatter  the formatter for this message, or null to use the profile's formatter
+     * @param message  the message to format
+     * @param throwable  an exception to log with the message, or null
+     * @param args  the arguments of the message
+     * @return the result of the logger, or 0 if the message was not logged
+     */
+    public int loggerWithFormatter(String logger, ClogFormatter messageFormatter, String message, Throwable throwable, Object... args) {
+        return loggerWithMarker(logger, null, messageFormatter, message, throwable, args);
+    }
+
+    /**
+     * Log a marked message, such as one logged through Clog4j with an SLF4J Marker. The marker is filtered by the
+     * profile's marker whitelist and blacklist, and by the logger if it is a {@link ClogMarkerLogger}, while this
+     * logger's tag is filtered as usual.
+     *
+     * @param logger  the key of the logger
+     * @param marker  the marker of this message, or null if it has none
+     * @param messageFormatter  the formatter for this message, or null to use the profile's formatter
+     * @param message  the message to format
+     * @param throwable  an exception to log with the message, or null
+     * @param args  the arguments of the message
+     * @return the result of the logger, or 0 if the message was not logged
+     */
+    public int loggerWithMarker(String logger, String marker, ClogFormatter messageFormatter, String message, Throwable throwable, Object... args) {
+        ClogFilter filter = profile.getFilter();
+
+        if(!filter.isLoggable(logger) || !isTagAllowed(filter) || !filter.isMarkerAllowed(marker, logger)) {
+            return 0;
+        }
+
+        return profile.logTagged(filter, tag, logger, messageFormatter, message, throwable, args);
+    }
+
+    @Override
+    public boolean isLoggable(String logger) {
+        return isLoggable(logger, null);
+    }
+
+    /**
+     * Check whether a marked message sent to a logger would be logged
+     *
+     * @param logger  the key of the logger
+     * @param marker  the marker of the message, or null if it has none
+     * @return false if a message with this marker to this logger would not be logged
+     */
+    public boolean isLoggable(String logger, String marker) {
+        ClogFilter filter = profile.getFilter();
+
+        return isTagAllowed(filter) && filter.isLoggable(logger) && filter.isMarkerAllowed(marker, logger);
+    }
+
+    private boolean isTagAllowed(ClogFilter filter) {
+        TagDecision decision = tagDecision;
+
+        if(decision == null || decision.filter != filter) {
+            decision = new TagDecision(filter, filter.isTagAllowed(tag));
+            tagDecision = decision;
+        }
+
+        return decision.allowed;
+    }
+
+    private static final class TagDecision {
+        final ClogFilter filter;
+        final boolean allowed;
+
+        TagDecision(ClogFilter filter, boolean allowed) {
+            this.filter = filter;
+            this.allowed = allowed;
+        }
+    }
+}
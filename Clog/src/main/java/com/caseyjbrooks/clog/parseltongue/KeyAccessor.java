@@ -0,0 +1,60 @@
+package com.caseyjbrooks.clog.parseltongue;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+
+/**
+ * Reads a String key from an object for the <code>['key']</code> indexer. Maps are read directly, and any other object
+ * is read through its public <code>get(String)</code> method. Each {@link Parseltongue} caches the accessors it
+ * resolves, including {@link #MISSING} for classes with no such method.
+ */
+abstract class KeyAccessor {
+
+    // the accessor for a class which cannot be indexed by key
+    static final KeyAccessor MISSING = new KeyAccessor() {
+        @Override
+        Object get(Object target, String key) {
+            return null;
+        }
+    };
+
+    static final KeyAccessor MAP = new KeyAccessor() {
+        @Override
+        Object get(Object target, String key) {
+            return ((Map) target).get(key);
+        }
+    };
+
+    abstract Object get(Object target, String key) throws Exception;
+
+    // Maps are read through MAP without being resolved
+    static KeyAccessor resolve(Class<?> type) {
+        try {
+            Method method = type.getMethod("get", String.class);
+
+            // public methods of a class which is not itself public cannot be invoked
+            if(Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+                return new MethodAccessor(method);
+            }
+        }
+        catch(Exception e) {
+//            e.printStackTrace();
+        }
+
+        return MISSING;
+    }
+
+    private static final class MethodAccessor extends KeyAccessor {
+        private final Method method;
+
+        MethodAccessor(Method method) {
+            this.method = method;
+        }
+
+        @Override
+        Object get(Object target, String key) throws Exception {
+            return method.invoke(target, key);
+        }
+    }
+}
@@ -1,16 +1,17 @@
 package com.caseyjbrooks.clog.parseltongue;
 
 import java.lang.reflect.Method;
-import java.util.ArrayList;
 
 public final class MethodIncantation implements Incantation {
 
     private final String name;
-    private final Method method;
+    private final Class<?>[] parameterTypes;
+    private final SpellInvoker invoker;
 
     public MethodIncantation(String name, Method method) {
         this.name = name;
-        this.method = method;
+        this.parameterTypes = method.getParameterTypes();
+        this.invoker = SpellInvoker.forMethod(method);
     }
 
     public String getName() {
@@ -18,93 +19,105 @@ public final class MethodIncantation implements Incantation {
     }
 
     public Object call(Object reagent, Object... reagents) {
-        Class<?>[] parameterTypes = method.getParameterTypes();
-        ArrayList<Object> params = new ArrayList<>();
-        if(reagent != null) {
-            params.add(reagent);
-        }
-        else {
-            params.add(new Parseltongue.NullObject());
+        //all parameter types match, go ahead and cast the spell!
+        if(accepts(Parseltongue.typesOf(reagent, reagents))) {
+            return invoke(reagent, reagents);
         }
 
-        if(reagents != null && reagents.length > 0) {
-            for(int i = 0; i < reagents.length; i++) {
-                if(reagents[i] != null) {
-                    params.add(reagents[i]);
-                }
-                else {
-                    params.add(new Parseltongue.NullObject());
-                }
-            }
-        }
+        return null;
+    }
 
+    /**
+     * Check whether this spell can be cast on reagents of the given types. A null type represents a null reagent,
+     * which could be passed as any parameter type.
+     *
+     * @param reagentTypes  the Classes of the reagent and each item in the parameter list
+     * @return  whether the types match this spell's parameters
+     */
+    boolean accepts(Class<?>[] reagentTypes) {
         //we are passing the same number of arguments as this method accepts. Check the types
         // for a type match
-        if(parameterTypes.length == params.size()) {
-            boolean methodMatch = true;
+        if(parameterTypes.length != reagentTypes.length) {
+            return false;
+        }
 
-            for (int i = 0; i < params.size(); i++) {
+        for (int i = 0; i < reagentTypes.length; i++) {
 
-                //if the object passed in is null, we cannot determine if it matches the param type, but
-                // we can just pass in the object at that index as a null object
-                if(params.get(i) instanceof Parseltongue.NullObject) {
-                    continue;
-                }
+            //if the object passed in is null, we cannot determine if it matches the param type, but
+            // we can just pass in the object at that index as a null object
+            if(reagentTypes[i] == null) {
+                continue;
+            }
 
-                //the parser gives us the concrete wrapper classes of primitives, which are not directly
-                // assignable to their primitive counterparts, so we must manually check each primitive param type
-                else if(parameterTypes[i].equals(byte.class) && params.get(i).getClass().equals(Byte.class)) {
-                    continue;
-                }
-                else if(parameterTypes[i].equals(short.class) && params.get(i).getClass().equals(Short.class)) {
-                    continue;
-                }
-                else if(parameterTypes[i].equals(int.class) && params.get(i).getClass().equals(Integer.class)) {
-                    continue;
-                }
-                else if(parameterTypes[i].equals(long.class) && params.get(i).getClass().equals(Long.class)) {
-                    continue;
-                }
-                else if(parameterTypes[i].equals(float.class) && params.get(i).getClass().equals(Float.class)) {
-                    continue;
-                }
-                else if(parameterTypes[i].equals(double.class) && params.get(i).getClass().equals(Double.class)) {
-                    continue;
-                }
-                else if(parameterTypes[i].equals(boolean.class) && params.get(i).getClass().equals(Boolean.class)) {
-                    continue;
-                }
-                else if(parameterTypes[i].isAssignableFrom(params.get(i).getClass())) {
-                    continue;
-                }
-                else {
-                    methodMatch = false;
-                    break;
-                }
+            //the parser gives us the concrete wrapper classes of primitives, which are not directly
+            // assignable to their primitive counterparts, so we must manually check each primitive param type
+            else if(parameterTypes[i].equals(byte.class) && reagentTypes[i].equals(Byte.class)) {
+                continue;
             }
+            else if(parameterTypes[i].equals(short.class) && reagentTypes[i].equals(Short.class)) {
+                continue;
+            }
+            else if(parameterTypes[i].equals(int.class) && reagentTypes[i].equals(Integer.class)) {
+                continue;
+            }
+            else if(parameterTypes[i].equals(long.class) && reagentTypes[i].equals(Long.class)) {
+                continue;
+            }
+            else if(parameterTypes[i].equals(float.class) && reagentTypes[i].equals(Float.class)) {
+                continue;
+            }
+            else if(parameterTypes[i].equals(double.class) && reagentTypes[i].equals(Double.class)) {
+                continue;
+            }
+            else if(parameterTypes[i].equals(boolean.class) && reagentTypes[i].equals(Boolean.class)) {
+                continue;
+            }
+            else if(parameterTypes[i].isAssignableFrom(reagentTypes[i])) {
+                continue;
+            }
+            else {
+                return false;
+            }
+        }
 
-            //all parameter types match, go ahead and cast the spell!
-            if(methodMatch) {
-                Object[] objects = new Object[params.size()];
-                for(int i = 0; i < params.size(); i++) {
-                    if(params.get(i) instanceof Parseltongue.NullObject) {
-                        objects[i] = null;
-                    }
-                    else {
-                        objects[i] = params.get(i);
-                    }
-                }
+        return true;
+    }
 
-                try {
-                    return method.invoke(null, objects);
-                }
-                catch(Exception e) {
-//                    e.printStackTrace();
+    /**
+     * Cast this spell without checking the reagent types, which must already be known to match.
+     *
+     * @param reagent  the object the spell is cast on
+     * @param reagents  the spell's parameters, which may be null
+     * @return  the result of the spell, or null if the spell failed
+     */
+    Object invoke(Object reagent, Object[] reagents) {
+        int reagentCount = (reagents != null) ? reagents.length : 0;
+
+        try {
+            if(reagentCount == 0) {
+                return invoker.invoke(unwrap(reagent));
+            }
+            else if(reagentCount == 1) {
+                return invoker.invoke(unwrap(reagent), unwrap(reagents[0]));
+            }
+            else {
+                Object[] objects = new Object[reagentCount + 1];
+                objects[0] = unwrap(reagent);
+                for(int i = 0; i < reagentCount; i++) {
+                    objects[i + 1] = unwrap(reagents[i]);
                 }
+                return invoker.invoke(objects);
             }
         }
+        catch(Throwable e) {
+//            e.printStackTrace();
+        }
 
         return null;
     }
 
+    private static Object unwrap(Object object) {
+        return (object instanceof Parseltongue.NullObject) ? null : object;
+    }
+
 }
@@ -1,25 +1,55 @@
 package com.caseyjbrooks.clog.parseltongue;
 
-import com.caseyjbrooks.clog.ClogFormatter;
+import com.caseyjbrooks.clog.BoundedCache;
+import com.caseyjbrooks.clog.AppendableClogFormatter;
 
-import java.lang.reflect.Field;
+import java.io.IOException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-
-public class Parseltongue implements ClogFormatter {
-    private List<Incantation> spells;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class Parseltongue implements AppendableClogFormatter {
+    public static final int DEFAULT_TEMPLATE_CACHE_SIZE = 512;
+    private static final Incantation[] NO_SPELLS = new Incantation[0];
+    private static final int SPELL_CACHE_SIZE = 1024;
+    private static final int ACCESSOR_CACHE_SIZE = 512;
+    private static final int MAX_RETAINED_BUFFER_SIZE = 8192;
+
+    // spells are looked up by name far more often than they are registered, so registering a spell copies the map
+    // and publishes the new one, and lookups never need to lock
+    private volatile Map<String, Incantation[]> spells;
+    // replaced rather than cleared when spells are added, so a resolution still in flight against the old spells
+    // lands in the discarded cache instead of the new one. It is always replaced after the spells it caches.
+    private volatile BoundedCache<SpellSignature, Incantation[]> resolvedSpells;
+    private BoundedCache<String, Template> templates;
+
+    // accessors hold reflected members of the classes they read, so they are cached per instance and bounded, rather
+    // than kept for the life of the JVM where they would pin those classes' classloaders
+    private final BoundedCache<PropertySignature, PropertyAccessor> propertyAccessors;
+    private final BoundedCache<Class<?>, KeyAccessor> keyAccessors;
+    private final ConcurrentHashMap<String, Template> precompiledTemplates;
+    private final ThreadLocal<StringBuilder> outputBuffer;
     boolean privateFieldsAccessible;
 
     public Parseltongue() {
-        spells = new ArrayList<>();
+        spells = new HashMap<>();
+        resolvedSpells = new BoundedCache<>(SPELL_CACHE_SIZE);
+        templates = new BoundedCache<>(DEFAULT_TEMPLATE_CACHE_SIZE);
+        propertyAccessors = new BoundedCache<>(ACCESSOR_CACHE_SIZE);
+        keyAccessors = new BoundedCache<>(ACCESSOR_CACHE_SIZE);
+        precompiledTemplates = new ConcurrentHashMap<>();
+        outputBuffer = new ThreadLocal<>();
         privateFieldsAccessible = false;
         findSpells(TheStandardBookOfSpells.class);
     }
 
     public void findSpells(Class c) {
+        ArrayList<Incantation> incantations = new ArrayList<>();
+
         for (final Method method : c.getDeclaredMethods()) {
             if (method.isAnnotationPresent(Spell.class)) {
                 Spell methodAnnotation = method.getAnnotation(Spell.class);
@@ -28,15 +58,37 @@ public class Parseltongue implements ClogFormatter {
                     spellName = method.getName();
                 }
 
-                spells.add(new MethodIncantation(spellName, method));
+                incantations.add(new MethodIncantation(spellName, method));
             }
         }
+
+        addSpells(incantations.toArray(new Incantation[incantations.size()]));
     }
 
-    public void addSpells(Incantation... incantations) {
+    public synchronized void addSpells(Incantation... incantations) {
+        Map<String, Incantation[]> newSpells = new HashMap<>(spells);
+
         for (Incantation incantation : incantations) {
-            spells.add(incantation);
+            Incantation[] overloads = newSpells.get(incantation.getName());
+
+            if(overloads == null) {
+                overloads = new Incantation[] { incantation };
+            }
+            else {
+                overloads = Arrays.copyOf(overloads, overloads.length + 1);
+                overloads[overloads.length - 1] = incantation;
+            }
+
+            newSpells.put(incantation.getName(), overloads);
         }
+
+        spells = newSpells;
+        resolvedSpells = new BoundedCache<>(SPELL_CACHE_SIZE);
+    }
+
+    // the currently registered spells, which is replaced whenever spells are added
+    Map<String, Incantation[]> getSpells() {
+        return spells;
     }
 
     public boolean arePrivateFieldsAccessible() {
@@ -47,64 +99,262 @@ public class Parseltongue implements ClogFormatter {
         this.privateFieldsAccessible = privateFieldsAccessible;
     }
 
+    /**
+     * Get the cache of compiled Templates, which can be used to check its hit, miss and eviction counts or to resize
+     * it. Setting the maximum size to 0 disables caching, so every message is parsed each time it is formatted.
+     *
+     * @return  the Template cache
+     */
+    public BoundedCache<String, Template> getTemplateCache() {
+        return templates;
+    }
+
+    /**
+     * Parse a message into a Template that can be rendered any number of times. Templates are cached by their
+     * message, so each distinct message is only parsed once.
+     *
+     * @param message  a String containing Parseltongue markup
+     * @return  the compiled Template
+     */
+    public Template compile(String message) {
+        Template template = precompiledTemplates.get(message);
+
+        if(template == null) {
+            template = templates.get(message);
+
+            if(template == null) {
+                template = templates.put(message, new Parser().parse(message));
+            }
+        }
+
+        return template;
+    }
+
+    /**
+     * Compile messages which will be formatted very often, such as on every request, ahead of time. Precompiled
+     * templates render faster than ones which are only parsed (see {@link Template}), and are kept for the life of
+     * this Parseltongue rather than competing for space in the template cache.
+     *
+     * @param messages  Strings containing Parseltongue markup
+     */
+    public void precompile(String... messages) {
+        for(String message : messages) {
+            Template template = new Parser().parse(message).compile();
+            precompiledTemplates.put(message, template);
+            templates.remove(message);
+        }
+    }
+
     @Override
     public String format(String message, Object... params) {
-        if(params != null && params.length > 0) {
-            return new Parser().parse(message, params);
+        Template template = compile(message);
+
+        if(template.isPlainText()) {
+            return message;
+        }
+
+        StringBuilder output = acquireOutputBuffer();
+
+        try {
+            template.render(this, params, output);
+            return output.toString();
+        }
+        catch(IOException e) {
+            // a StringBuilder never throws IOException
+            throw new IllegalStateException(e);
+        }
+        finally {
+            releaseOutputBuffer(output);
+        }
+    }
+
+    @Override
+    public void format(Appendable output, String message, Object... params) throws IOException {
+        Template template = compile(message);
+
+        if(template.isPlainText()) {
+            output.append(message);
         }
         else {
-            return new Parser().parse(message, null);
+            template.render(this, params, output);
+        }
+    }
+
+    // Each thread keeps one StringBuilder to render into, which is taken out while in use. Spells like 'repeat' may
+    // format another message while this one is still rendering, in which case the nested call gets a new buffer.
+    private StringBuilder acquireOutputBuffer() {
+        StringBuilder output = outputBuffer.get();
+
+        if(output != null) {
+            outputBuffer.set(null);
+            return output;
+        }
+        else {
+            return new StringBuilder();
+        }
+    }
+
+    private void releaseOutputBuffer(StringBuilder output) {
+        // don't hold onto buffers which have grown unusually large
+        if(output.capacity() <= MAX_RETAINED_BUFFER_SIZE) {
+            output.setLength(0);
+            outputBuffer.set(output);
         }
     }
 
     public Object transfigureObject(String key, Object reagent, Object... reagents) {
-        for(Incantation incantation : spells) {
-            if(incantation.getName().equals(key)) {
-                Object result = incantation.call(reagent, reagents);
+        Map<String, Incantation[]> spells = this.spells;
+        return castSpell(resolveSpell(spells, key, typesOf(reagent, reagents)), reagent, reagents);
+    }
 
-                if(result != null) {
-                    return result;
-                }
+    Object castSpell(Incantation[] incantations, Object reagent, Object[] reagents) {
+        for(Incantation incantation : incantations) {
+            Object result;
+            if(incantation instanceof MethodIncantation) {
+                result = ((MethodIncantation) incantation).invoke(reagent, reagents);
+            }
+            else {
+                result = incantation.call(reagent, reagents);
+            }
+
+            if(result != null) {
+                return result;
             }
         }
 
         return null;
     }
 
+    /**
+     * Find all overloads of a spell which could be cast on reagents of these types, in the order they were
+     * registered. The result is cached by the spell name and reagent types, so the type checks of each overload are
+     * only done once for each combination. Custom Incantations can't be checked ahead of time, and so are always
+     * included.
+     */
+    Incantation[] resolveSpell(Map<String, Incantation[]> spells, String key, Class<?>[] types) {
+        Incantation[] overloads = spells.get(key);
+        if(overloads == null) {
+            return NO_SPELLS;
+        }
+
+        SpellSignature signature = new SpellSignature(key, types);
+        BoundedCache<SpellSignature, Incantation[]> resolvedSpells = this.resolvedSpells;
+
+        // spells replaced since they were read must not be cached with the cache of the spells replacing them
+        boolean cacheable = (spells == this.spells);
+        Incantation[] resolved = (cacheable) ? resolvedSpells.get(signature) : null;
+
+        if(resolved == null) {
+            ArrayList<Incantation> candidates = new ArrayList<>();
+            for(Incantation incantation : overloads) {
+                if(!(incantation instanceof MethodIncantation) || ((MethodIncantation) incantation).accepts(signature.types)) {
+                    candidates.add(incantation);
+                }
+            }
+
+            resolved = candidates.toArray(new Incantation[candidates.size()]);
+            if(cacheable) {
+                resolved = resolvedSpells.put(signature, resolved);
+            }
+        }
+
+        return resolved;
+    }
+
+    static Class<?>[] typesOf(Object reagent, Object[] reagents) {
+        int reagentCount = (reagents != null) ? reagents.length : 0;
+        Class<?>[] types = new Class<?>[reagentCount + 1];
+        types[0] = typeOf(reagent);
+        for(int i = 0; i < reagentCount; i++) {
+            types[i + 1] = typeOf(reagents[i]);
+        }
+        return types;
+    }
+
+    static Class<?> typeOf(Object object) {
+        return (object == null || object instanceof NullObject) ? null : object.getClass();
+    }
+
+    private static final class SpellSignature {
+        final String name;
+        final Class<?>[] types;
+        final int hashCode;
+
+        SpellSignature(String name, Class<?>[] types) {
+            this.name = name;
+            this.types = types;
+            this.hashCode = 31 * name.hashCode() + Arrays.hashCode(types);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof SpellSignature)) {
+                return false;
+            }
+            SpellSignature other = (SpellSignature) o;
+            return hashCode == other.hashCode && name.equals(other.name) && Arrays.equals(types, other.types);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static final class PropertySignature {
+        final Class<?> type;
+        final String property;
+        final boolean privateFieldsAccessible;
+        final int hashCode;
+
+        PropertySignature(Class<?> type, String property, boolean privateFieldsAccessible) {
+            this.type = type;
+            this.property = property;
+            this.privateFieldsAccessible = privateFieldsAccessible;
+            this.hashCode = 31 * (31 * type.hashCode() + property.hashCode()) + (privateFieldsAccessible ? 1 : 0);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof PropertySignature)) {
+                return false;
+            }
+            PropertySignature other = (PropertySignature) o;
+            return hashCode == other.hashCode && type == other.type && property.equals(other.property)
+                    && privateFieldsAccessible == other.privateFieldsAccessible;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
 // keeping the parser implementation as a private class, instantiated new each time, helps keep
-// each run unpolluted
+// each run unpolluted. The parser does not evaluate anything itself, it only records the steps needed to render the
+// message into a Template
 
-    private class Parser {
+    private static class Parser {
 
-        private ArrayList<Object> params;
-        private ArrayList<Object> results;
+        private ArrayList<Template.Step> steps;
 
         TokenStream ts;
         String input;
-        String output;
-
-        private int autoParamCounter;
 
         private ArrayList<String> messages;
 
-        public String parse(String input, Object[] params) {
-
-            if(params != null && params.length > 0) {
-                this.params = new ArrayList<>(Arrays.asList(params));
-            }
-            else {
-                this.params = new ArrayList<>();
+        public Template parse(String input) {
+            if(isPlainText(input)) {
+                return new Template(input);
             }
 
-            this.results = new ArrayList<>();
+            this.steps = new ArrayList<>();
             this.messages = new ArrayList<>();
 
             this.input = input;
-            this.output = "";
 
             this.ts = new TokenStream(input);
 
-            autoParamCounter = 0;
             while(ts.hasTokens()) {
                 any();
 
@@ -113,14 +363,31 @@ public class Parseltongue implements ClogFormatter {
                 }
             }
 
-            return output;
+            Template.Step[] compiledSteps = new Template.Step[steps.size()];
+            steps.toArray(compiledSteps);
+            return new Template(input, compiledSteps);
+        }
+
+        // a single scan for the start of a clog, '#{' or '{}'. Messages without either are never tokenized.
+        private boolean isPlainText(String input) {
+            for(int i = 0, last = input.length() - 1; i < last; i++) {
+                char ch = input.charAt(i);
+                char next = input.charAt(i + 1);
+                if((ch == '#' && next == '{') || (ch == '{' && next == '}')) {
+                    return false;
+                }
+            }
+
+            return true;
         }
 
         //any ::= (anything but '#{')
         private void any() {
             Token t = ts.getAny();
 
-            output += t.getStringValue();
+            if(t.getStringValue().length() > 0) {
+                steps.add(new Template.Text(t.getStringValue()));
+            }
         }
 
         //clog ::= CLOG_START reagent spellbook RCURLYBRACE | CLOG_SIMPLE RCURLYBRACE
@@ -128,19 +395,12 @@ public class Parseltongue implements ClogFormatter {
             Token a = ts.get();
 
             if(a != null && a.equals(Token.Type.CLOG_START)) {
-                ParseltonguePair<Boolean, Object> object = reagent();
-
-                if(object.first) {
-                    ParseltonguePair<Boolean, Object> spellbookResult = spellbook(object.second);
-                    results.add(spellbookResult.second);
-
-                    if(spellbookResult.first) {
+                if(reagent()) {
+                    if(spellbook()) {
                         Token b = ts.get();
 
                         if (b != null && b.equals(Token.Type.RCURLYBRACE)) {
-                            if (spellbookResult.second != null) {
-                                output += spellbookResult.second.toString();
-                            }
+                            steps.add(new Template.EndClog(true, true, true));
                         }
                         else {
                             ts.unget(b);
@@ -151,27 +411,25 @@ public class Parseltongue implements ClogFormatter {
                                 messages.add("Expecting '}' after clog, got 'null' (at column " + ts.getColumn() + ")");
                             }
 
+                            steps.add(new Template.EndClog(true, true, false));
                             unclog();
                         }
                     }
                     else {
+                        steps.add(new Template.EndClog(false, true, false));
                         unclog();
                     }
                 }
                 else {
                     unclog();
-                    results.add(null);
+                    steps.add(new Template.EndClog(false, true, false));
                 }
             }
             else if(a != null && a.equals(Token.Type.CLOG_SIMPLE)) {
-                ParseltonguePair<Boolean, Object> object = autoParam();
-
-                if(object.first) {
+                if(autoParam()) {
                     Token b = ts.get();
                     if (b != null && b.equals(Token.Type.RCURLYBRACE)) {
-                        if (object.second != null) {
-                            output += object.second.toString();
-                        }
+                        steps.add(new Template.EndClog(true, false, true));
                     }
                     else {
                         ts.unget(b);
@@ -182,38 +440,30 @@ public class Parseltongue implements ClogFormatter {
                             messages.add("Expecting '}' after simple clog, got 'null' (at column " + ts.getColumn() + ")");
                         }
 
+                        steps.add(new Template.EndClog(false, false, false));
                         unclog();
                     }
                 }
                 else {
                     unclog();
-                    results.add(null);
+                    steps.add(new Template.EndClog(false, true, false));
                 }
             }
         }
 
         //spellbook ::= (PIPE castSpell)+
-        private ParseltonguePair<Boolean, Object> spellbook(Object initialReagent) {
-            Object pipelineObject = initialReagent;
-
+        private boolean spellbook() {
             while (true) {
                 Token a = ts.get();
 
                 if (a != null && a.equals(Token.Type.PIPE)) {
-                    ParseltonguePair<Boolean, Object> spellResult = castSpell(pipelineObject);
-
-                    if(spellResult.first) {
-                        ParseltonguePair<Boolean, Object> indexedSpell = indexer(spellResult);
-
-                        if(indexedSpell.first) {
-                            pipelineObject = indexedSpell.second;
-                        }
-                        else {
-                            pipelineObject = spellResult.second;
-                        }
+                    if(castSpell()) {
+                        // an invalid indexer after a spell is ignored, and the spell's result continues down the
+                        // pipeline
+                        indexer();
                     }
                     else {
-                        return new ParseltonguePair<>(false, null);
+                        return false;
                     }
                 }
                 else {
@@ -222,24 +472,25 @@ public class Parseltongue implements ClogFormatter {
                 }
             }
 
-            return new ParseltonguePair<>(true, pipelineObject);
+            return true;
         }
 
         //castSpell ::= spellName (LPAREN reagentList RPAREN)
-        private ParseltonguePair<Boolean, Object> castSpell(Object reagent) {
+        private boolean castSpell() {
             Token a = ts.get();
 
             if (a != null && a.equals(Token.Type.WORD)) {
                 Token b = ts.get();
 
                 if (b != null && b.equals(Token.Type.LPAREN)) {
-                    ParseltonguePair<Boolean, Object[]> reagents = reagentList();
+                    int reagentCount = reagentList();
 
-                    if(reagents.first) {
+                    if(reagentCount >= 0) {
                         Token c = ts.get();
 
                         if (c != null && c.equals(Token.Type.RPAREN)) {
-                            return new ParseltonguePair<>(true, transfigureObject(a.getStringValue(), reagent, reagents.second));
+                            steps.add(new Template.CastSpell(a.getStringValue(), reagentCount));
+                            return true;
                         }
                         else {
                             ts.unget(c);
@@ -253,43 +504,42 @@ public class Parseltongue implements ClogFormatter {
                                 messages.add("Expecting ')' after param list, got 'null' (at column " + ts.getColumn() + ")");
                             }
 
-                            return new ParseltonguePair<>(false, null);
+                            return false;
                         }
                     }
                     else {
-                        return new ParseltonguePair<>(false, null);
+                        return false;
                     }
                 }
                 else{
                     ts.unget(b);
-                    return new ParseltonguePair<>(true, transfigureObject(a.getStringValue(), reagent));
+                    steps.add(new Template.CastSpell(a.getStringValue(), -1));
+                    return true;
                 }
             }
             else{
                 ts.unget(a);
-                return new ParseltonguePair<>(false, null);
+                return false;
             }
         }
 
         //reagentList ::= (reagent (COMMA reagent)+)
-        private ParseltonguePair<Boolean, Object[]> reagentList() {
-            ArrayList<Object> reagents = new ArrayList<>();
-
-            ParseltonguePair<Boolean, Object> reagent = reagent();
+        // returns the number of reagents in the list, or -1 if the list is invalid
+        private int reagentList() {
+            int reagentCount = 0;
 
-            if(reagent.first) {
-                reagents.add(reagent.second);
+            if(reagent()) {
+                reagentCount++;
 
                 while (true) {
                     Token a = ts.get();
 
                     if (a != null && a.equals(Token.Type.COMMA)) {
-                        ParseltonguePair<Boolean, Object> otherReagent = reagent();
-                        if(otherReagent.first) {
-                            reagents.add(otherReagent.second);
+                        if(reagent()) {
+                            reagentCount++;
                         }
                         else {
-                            return new ParseltonguePair<>(false, null);
+                            return -1;
                         }
                     }
                     else {
@@ -297,79 +547,75 @@ public class Parseltongue implements ClogFormatter {
                         break;
                     }
                 }
-
-                Object[] reagentsList = new Object[reagents.size()];
-                reagents.toArray(reagentsList);
-                return new ParseltonguePair<>(true, reagentsList);
-            }
-            else {
-                return new ParseltonguePair<>(true, null);
             }
+
+            return reagentCount;
         }
 
         //reagent ::= param indexer | result indexer | booleanLit | integerLit | doubleLit | stringLit | autoParam
-        private ParseltonguePair<Boolean, Object> reagent() {
-            ParseltonguePair<Boolean, Object> param = param();
-            if(param.first) {
-                return indexer(param);
+        private boolean reagent() {
+            if(param()) {
+                return indexedReagent();
             }
 
-            ParseltonguePair<Boolean, Object> result = result();
-            if(result.first) {
-                return indexer(result);
+            if(result()) {
+                return indexedReagent();
             }
 
-            ParseltonguePair<Boolean, Boolean> booleanLit = booleanLit();
-            if(booleanLit.first) {
-                return new ParseltonguePair<Boolean, Object>(true, booleanLit.second);
+            Boolean booleanLit = booleanLit();
+            if(booleanLit != null) {
+                steps.add(new Template.Literal(booleanLit));
+                return true;
             }
 
-            ParseltonguePair<Boolean, Double> doubleLit = doubleLit();
-            if(doubleLit.first) {
-                return new ParseltonguePair<Boolean, Object>(true, doubleLit.second);
+            Double doubleLit = doubleLit();
+            if(doubleLit != null) {
+                steps.add(new Template.Literal(doubleLit));
+                return true;
             }
 
-            ParseltonguePair<Boolean, Integer> integerLit = integerLit();
-            if(integerLit.first) {
-                return new ParseltonguePair<Boolean, Object>(true, integerLit.second);
+            Integer integerLit = integerLit();
+            if(integerLit != null) {
+                steps.add(new Template.Literal(integerLit));
+                return true;
             }
 
-            ParseltonguePair<Boolean, String> stringLit = stringLit();
-            if(stringLit.first) {
-                return new ParseltonguePair<Boolean, Object>(true, stringLit.second);
+            String stringLit = stringLit();
+            if(stringLit != null) {
+                steps.add(new Template.Literal(stringLit));
+                return true;
             }
 
-            ParseltonguePair<Boolean, NullObject> nullLit = nullLit();
-            if(nullLit.first) {
-                return new ParseltonguePair<Boolean, Object>(true, nullLit.second);
+            NullObject nullLit = nullLit();
+            if(nullLit != null) {
+                steps.add(new Template.Literal(nullLit));
+                return true;
             }
 
-            ParseltonguePair<Boolean, Object> autoParam = autoParam();
-            if(autoParam.first) {
-                return autoParam;
-            }
+            return autoParam();
+        }
 
-            return new ParseltonguePair<>(false, null);
+        // the param or result has already been fetched, so if its indexer is invalid that value must be discarded
+        private boolean indexedReagent() {
+            if(indexer()) {
+                return true;
+            }
+            else {
+                steps.add(new Template.Discard());
+                return false;
+            }
         }
 
         //param ::= DOLLARSIGN NUMBER
-        private ParseltonguePair<Boolean, Object> param() {
+        private boolean param() {
             Token a = ts.get();
 
             if(a != null && a.equals(Token.Type.DOLLARSIGN)) {
                 Token b = ts.get();
 
                 if(b != null && b.equals(Token.Type.NUMBER)) {
-                    int index = b.getIntValue();
-
-                    if(index > 0 && (index - 1) < params.size()) {
-                        autoParamCounter++;
-                        return new ParseltonguePair<>(true, params.get(index - 1));
-                    }
-                    else {
-                        autoParamCounter++;
-                        return new ParseltonguePair<>(true, null);
-                    }
+                    steps.add(new Template.Param(b.getIntValue()));
+                    return true;
                 }
                 else {
                     ts.unget(b);
@@ -381,31 +627,25 @@ public class Parseltongue implements ClogFormatter {
                         messages.add("Expecting a number after '$', got 'null' (at column " + ts.getColumn() + ")");
                     }
 
-                    return new ParseltonguePair<>(false, null);
+                    return false;
                 }
             }
             else {
                 ts.unget(a);
-                return new ParseltonguePair<>(false, null);
+                return false;
             }
         }
 
         //result ::= ATSIGN NUMBER
-        private ParseltonguePair<Boolean, Object> result() {
+        private boolean result() {
             Token a = ts.get();
 
             if(a != null && a.equals(Token.Type.AT)) {
                 Token b = ts.get();
 
                 if(b != null && b.equals(Token.Type.NUMBER)) {
-                    int index = b.getIntValue();
-
-                    if(index > 0 && (index - 1) < results.size()) {
-                        return new ParseltonguePair<>(true, results.get(index - 1));
-                    }
-                    else {
-                        return new ParseltonguePair<>(true, null);
-                    }
+                    steps.add(new Template.Result(b.getIntValue()));
+                    return true;
                 }
                 else {
                     ts.unget(b);
@@ -417,34 +657,34 @@ public class Parseltongue implements ClogFormatter {
                         messages.add("Expecting a number after '@', got 'null' (at column " + ts.getColumn() + ")");
                     }
 
-                    return new ParseltonguePair<>(false, null);
+                    return false;
                 }
             }
             else {
                 ts.unget(a);
-                return new ParseltonguePair<>(false, null);
+                return false;
             }
         }
 
         //booleanLit ::= WORD=true | WORD=false
-        private ParseltonguePair<Boolean, Boolean> booleanLit() {
+        private Boolean booleanLit() {
             Token a = ts.get();
 
             if(a != null && a.equals(Token.Type.WORD)) {
                 if(a.getStringValue().equalsIgnoreCase("true")) {
-                    return new ParseltonguePair<>(true, true);
+                    return true;
                 }
                 else if(a.getStringValue().equalsIgnoreCase("false")) {
-                    return new ParseltonguePair<>(true, false);
+                    return false;
                 }
             }
 
             ts.unget(a);
-            return new ParseltonguePair<>(false, false);
+            return null;
         }
 
         //doubleLit ::= NUMBER DOT NUMBER
-        private ParseltonguePair<Boolean, Double> doubleLit() {
+        private Double doubleLit() {
             Token a = ts.get();
 
             if(a != null && a.equals(Token.Type.NUMBER)) {
@@ -453,7 +693,7 @@ public class Parseltongue implements ClogFormatter {
                 if(b != null && b.equals(Token.Type.DOT)) {
                     Token c = ts.get();
                     if(c != null && c.equals(Token.Type.NUMBER)) {
-                        return new ParseltonguePair<>(true, Double.parseDouble(a.getIntValue() + "." + c.getIntValue()));
+                        return Double.parseDouble(a.getIntValue() + "." + c.getIntValue());
                     }
                     else {
                         ts.unget(c);
@@ -470,23 +710,23 @@ public class Parseltongue implements ClogFormatter {
                 ts.unget(a);
             }
 
-            return new ParseltonguePair<>(false, 0.0);
+            return null;
         }
 
         //integerLit ::= NUMBER
-        private ParseltonguePair<Boolean, Integer> integerLit() {
+        private Integer integerLit() {
             Token a = ts.get();
 
             if(a != null && a.equals(Token.Type.NUMBER)) {
-                return new ParseltonguePair<>(true, a.getIntValue());
+                return a.getIntValue();
             }
 
             ts.unget(a);
-            return new ParseltonguePair<>(false, 0);
+            return null;
         }
 
         //stringLit ::= QUOTE anything QUOTE
-        private ParseltonguePair<Boolean, String> stringLit() {
+        private String stringLit() {
             Token a = ts.get();
 
             if(a != null && a.equals(Token.Type.QUOTE)) {
@@ -495,7 +735,7 @@ public class Parseltongue implements ClogFormatter {
                 if(b != null) {
                     Token c = ts.get();
                     if(c != null && c.equals(Token.Type.QUOTE)) {
-                        return new ParseltonguePair<>(true, b.getStringValue());
+                        return b.getStringValue();
                     }
                     else {
                         ts.unget(c);
@@ -516,46 +756,42 @@ public class Parseltongue implements ClogFormatter {
                 ts.unget(a);
             }
 
-            return new ParseltonguePair<>(false, "");
+            return null;
         }
 
         //stringLit ::= WORD
-        private ParseltonguePair<Boolean, NullObject> nullLit() {
+        private NullObject nullLit() {
             Token a = ts.get();
 
             if(a != null && a.equals(Token.Type.WORD)) {
                 if(a.getStringValue().equalsIgnoreCase("null")) {
-                    return new ParseltonguePair<>(true, new NullObject());
+                    return new NullObject();
                 }
             }
 
             ts.unget(a);
-            return new ParseltonguePair<>(false, null);
+            return null;
         }
 
         //autoParam ::=
-        private ParseltonguePair<Boolean, Object> autoParam() {
+        private boolean autoParam() {
             Token a = ts.get();
 
             if(a != null && a.equals(Token.Type.RCURLYBRACE)) {
                 ts.unget(a);
-                autoParamCounter++;
-                if(autoParamCounter > 0 && (autoParamCounter - 1) < params.size()) {
-                    return new ParseltonguePair<>(true, params.get(autoParamCounter - 1));
-                }
-                else {
-                    return new ParseltonguePair<>(true, null);
-                }
+                steps.add(new Template.AutoParam());
+                return true;
             }
             else {
                 ts.unget(a);
             }
 
-            return new ParseltonguePair<>(false, null);
+            return false;
         }
 
         //indexer :== ( LBRACKET NUMBER RBRACKET | LBRACKET WORD RBRACKET | LBRACKET stringLit RBRACKET)
-        private ParseltonguePair<Boolean, Object> indexer(ParseltonguePair<Boolean, Object> object) {
+        // returns false only if an indexer was started but is invalid
+        private boolean indexer() {
             Token a = ts.get();
 
             if(a != null && a.equals(Token.Type.LBRACKET)) {
@@ -564,57 +800,60 @@ public class Parseltongue implements ClogFormatter {
                 if(b != null && b.equals(Token.Type.NUMBER)) {
                     Token c = ts.get();
                     if(c != null && c.equals(Token.Type.RBRACKET)) {
-                        return new ParseltonguePair<>(true, arrayIndexer(object.second, b.getIntValue()));
+                        steps.add(new Template.ArrayIndex(b.getIntValue()));
+                        return true;
                     }
                     else {
                         ts.unget(c);
                         ts.unget(b);
                         ts.unget(a);
-                        return new ParseltonguePair<>(false, null);
+                        return false;
                     }
                 }
                 else if(b != null && b.equals(Token.Type.WORD)) {
                     Token c = ts.get();
                     if(c != null && c.equals(Token.Type.RBRACKET)) {
-                        return new ParseltonguePair<>(true, propertyIndexer(object.second, b.getStringValue()));
+                        steps.add(new Template.PropertyIndex(b.getStringValue()));
+                        return true;
                     }
                     else {
                         ts.unget(c);
                         ts.unget(b);
                         ts.unget(a);
-                        return new ParseltonguePair<>(false, null);
+                        return false;
                     }
                 }
                 else if(b != null && b.equals(Token.Type.QUOTE)) {
                     ts.unget(b);
 
-                    ParseltonguePair<Boolean, String> stringKey = stringLit();
+                    String stringKey = stringLit();
 
-                    if(stringKey.first) {
+                    if(stringKey != null) {
                         Token c = ts.get();
                         if(c != null && c.equals(Token.Type.RBRACKET)) {
-                            return new ParseltonguePair<>(true, mapIndexer(object.second, stringKey.second));
+                            steps.add(new Template.MapIndex(stringKey));
+                            return true;
                         }
                         else {
                             ts.unget(c);
                             ts.unget(b);
                             ts.unget(a);
-                            return new ParseltonguePair<>(false, null);
+                            return false;
                         }
                     }
                     else {
-                        return new ParseltonguePair<>(false, null);
+                        return false;
                     }
                 }
                 else {
                     ts.unget(b);
                     ts.unget(a);
-                    return new ParseltonguePair<>(false, null);
+                    return false;
                 }
             }
             else {
                 ts.unget(a);
-                return object;
+                return true;
             }
         }
 
@@ -625,81 +864,92 @@ public class Parseltongue implements ClogFormatter {
         private void unclogString() {
 
         }
+    }
 
-        private Object arrayIndexer(Object object, int index) {
-            if(object instanceof Object[]) {
-                Object[] array = (Object[]) object;
+// Indexers, applied to reagents while rendering a Template
+//--------------------------------------------------------------------------------------------------
 
-                if(index >= 0 && index < array.length) {
-                    return array[index];
-                }
-                else {
-                    return null;
-                }
-            }
-            else if(object instanceof List) {
-                List list = (List) object;
+    Object arrayIndexer(Object object, int index) {
+        if(object instanceof Object[]) {
+            Object[] array = (Object[]) object;
 
-                if(index >= 0 && index < list.size()) {
-                    return list.get(index);
-                }
-                else {
-                    return null;
-                }
+            if(index >= 0 && index < array.length) {
+                return array[index];
             }
             else {
                 return null;
             }
         }
+        else if(object instanceof List) {
+            List list = (List) object;
 
-        private Object propertyIndexer(Object object, String property) {
-            try {
-                Class<?> c = object.getClass();
-                Field field = c.getField(property);
-                return field.get(object);
+            if(index >= 0 && index < list.size()) {
+                return list.get(index);
             }
-            catch(Exception e) {
-//                e.printStackTrace();
-
-                if(privateFieldsAccessible) {
-                    try {
-                        Class<?> c = object.getClass();
-                        Field field = c.getDeclaredField(property);
-                        field.setAccessible(privateFieldsAccessible);
-                        return field.get(object);
-                    }
-                    catch (Exception ee) {
-//                        e.printStackTrace();
-                    }
-                }
+            else {
+                return null;
             }
+        }
+        else {
+            return null;
+        }
+    }
 
+    Object propertyIndexer(Object object, String property) {
+        if(object == null) {
             return null;
         }
 
-        private Object mapIndexer(Object object, String key) {
-            if(object instanceof Map) {
-                Map map = (Map) object;
+        try {
+            return findPropertyAccessor(object.getClass(), property).get(object);
+        }
+        catch(Exception e) {
+//            e.printStackTrace();
+        }
 
-                if(map.containsKey(key)) {
-                    return map.get(key);
-                }
-                else {
-                    return null;
-                }
-            }
-            else {
-                try {
-                    Method method = object.getClass().getMethod("get", String.class);
-                    return method.invoke(object, key);
-                }
-                catch(Exception e) {
-//                    e.printStackTrace();
-                }
+        return null;
+    }
 
-                return null;
-            }
+    // accessors resolved with private fields accessible are kept apart from those resolved without, so changing the
+    // setting never returns an accessor resolved under the other one
+    PropertyAccessor findPropertyAccessor(Class<?> type, String property) {
+        boolean privateFieldsAccessible = this.privateFieldsAccessible;
+        PropertySignature signature = new PropertySignature(type, property, privateFieldsAccessible);
+
+        PropertyAccessor accessor = propertyAccessors.get(signature);
+        if(accessor == null) {
+            accessor = propertyAccessors.put(signature, PropertyAccessor.resolve(type, property, privateFieldsAccessible));
+        }
+
+        return accessor;
+    }
+
+    Object mapIndexer(Object object, String key) {
+        if(object == null) {
+            return null;
         }
+
+        try {
+            return findKeyAccessor(object.getClass()).get(object, key);
+        }
+        catch(Exception e) {
+//            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    KeyAccessor findKeyAccessor(Class<?> type) {
+        if(Map.class.isAssignableFrom(type)) {
+            return KeyAccessor.MAP;
+        }
+
+        KeyAccessor accessor = keyAccessors.get(type);
+        if(accessor == null) {
+            accessor = keyAccessors.put(type, KeyAccessor.resolve(type));
+        }
+
+        return accessor;
     }
 
     static class NullObject {
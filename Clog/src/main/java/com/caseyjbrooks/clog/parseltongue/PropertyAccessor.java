@@ -0,0 +1,152 @@
+package com.caseyjbrooks.clog.parseltongue;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Reads a named property from an object for the <code>[property]</code> indexer. A property is found by looking, in
+ * order, for a public field, a private field (only if private fields have been made accessible), a JavaBean getter
+ * (<code>getProperty()</code> or <code>isProperty()</code>), and finally a record component accessor. Resolving an
+ * accessor is costly, so each {@link Parseltongue} caches the accessors it resolves, including {@link #MISSING}.
+ */
+abstract class PropertyAccessor {
+
+    // the accessor for a property which could not be found
+    static final PropertyAccessor MISSING = new PropertyAccessor() {
+        @Override
+        Object get(Object target) {
+            return null;
+        }
+    };
+
+    private static final Method IS_RECORD = findIsRecord();
+
+    abstract Object get(Object target) throws Exception;
+
+    static PropertyAccessor resolve(Class<?> type, String property, boolean privateFieldsAccessible) {
+        try {
+            Field field = type.getField(property);
+            if(makeAccessible(field, privateFieldsAccessible)) {
+                return new FieldAccessor(field);
+            }
+        }
+        catch(Exception e) {
+//            e.printStackTrace();
+        }
+
+        if(privateFieldsAccessible) {
+            try {
+                Field field = type.getDeclaredField(property);
+                field.setAccessible(true);
+                return new FieldAccessor(field);
+            }
+            catch(Exception e) {
+//                e.printStackTrace();
+            }
+        }
+
+        if(property.length() > 0) {
+            String capitalized = Character.toUpperCase(property.charAt(0)) + property.substring(1);
+
+            Method getter = findAccessorMethod(type, "get" + capitalized, privateFieldsAccessible);
+            if(getter != null) {
+                return new MethodAccessor(getter);
+            }
+
+            Method booleanGetter = findAccessorMethod(type, "is" + capitalized, privateFieldsAccessible);
+            if(booleanGetter != null && (booleanGetter.getReturnType() == boolean.class || booleanGetter.getReturnType() == Boolean.class)) {
+                return new MethodAccessor(booleanGetter);
+            }
+
+            if(isRecord(type)) {
+                Method componentAccessor = findAccessorMethod(type, property, privateFieldsAccessible);
+                if(componentAccessor != null) {
+                    return new MethodAccessor(componentAccessor);
+                }
+            }
+        }
+
+        return MISSING;
+    }
+
+    // a public, non-static method taking no parameters and returning a value
+    private static Method findAccessorMethod(Class<?> type, String name, boolean privateFieldsAccessible) {
+        try {
+            Method method = type.getMethod(name);
+            if(!Modifier.isStatic(method.getModifiers()) && method.getReturnType() != void.class && makeAccessible(method, privateFieldsAccessible)) {
+                return method;
+            }
+        }
+        catch(Exception e) {
+//            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    // public members of a class which is not itself public cannot be used without suppressing access checks, which is
+    // only done if private fields have been made accessible
+    private static boolean makeAccessible(java.lang.reflect.Member member, boolean privateFieldsAccessible) {
+        if(Modifier.isPublic(member.getDeclaringClass().getModifiers())) {
+            return true;
+        }
+        else if(privateFieldsAccessible) {
+            try {
+                ((java.lang.reflect.AccessibleObject) member).setAccessible(true);
+                return true;
+            }
+            catch(Exception e) {
+                return false;
+            }
+        }
+        else {
+            return false;
+        }
+    }
+
+    private static boolean isRecord(Class<?> type) {
+        try {
+            return IS_RECORD != null && (Boolean) IS_RECORD.invoke(type);
+        }
+        catch(Exception e) {
+            return false;
+        }
+    }
+
+    // records were added in Java 16, long after the version this library targets
+    private static Method findIsRecord() {
+        try {
+            return Class.class.getMethod("isRecord");
+        }
+        catch(Exception e) {
+            return null;
+        }
+    }
+
+    private static final class FieldAccessor extends PropertyAccessor {
+        private final Field field;
+
+        FieldAccessor(Field field) {
+            this.field = field;
+        }
+
+        @Override
+        Object get(Object target) throws Exception {
+            return field.get(target);
+        }
+    }
+
+    private static final class MethodAccessor extends PropertyAccessor {
+        private final Method method;
+
+        MethodAccessor(Method method) {
+            this.method = method;
+        }
+
+        @Override
+        Object get(Object target) throws Exception {
+            return method.invoke(target);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.caseyjbrooks.clog.parseltongue;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+
+/**
+ * Calls the static method behind a {@link MethodIncantation}. Where java.lang.invoke is available, each method is
+ * bound once to a MethodHandle adapted to take and return Objects, with exact-arity entry points for spells taking one
+ * or two parameters so that casting them does not need an argument array. On platforms without it, such as older
+ * versions of Android, spells are called through reflection instead.
+ */
+abstract class SpellInvoker {
+
+    private static final boolean METHOD_HANDLES_AVAILABLE = isMethodHandlesAvailable();
+
+    static SpellInvoker forMethod(Method method) {
+        if(METHOD_HANDLES_AVAILABLE) {
+            try {
+                return new MethodHandleInvoker(method);
+            }
+            catch(Throwable e) {
+                // the method could not be bound, so fall back to reflection
+            }
+        }
+
+        return new ReflectionInvoker(method);
+    }
+
+    private static boolean isMethodHandlesAvailable() {
+        try {
+            Class.forName("java.lang.invoke.MethodHandles");
+            return true;
+        }
+        catch(Throwable e) {
+            return false;
+        }
+    }
+
+    abstract Object invoke(Object arg) throws Throwable;
+
+    abstract Object invoke(Object arg1, Object arg2) throws Throwable;
+
+    abstract Object invoke(Object[] args) throws Throwable;
+
+    static final class MethodHandleInvoker extends SpellInvoker {
+        private final MethodHandle handle;
+
+        MethodHandleInvoker(Method method) throws IllegalAccessException {
+            MethodHandle unreflected = MethodHandles.publicLookup().unreflect(method).asFixedArity();
+            this.handle = unreflected.asType(MethodType.genericMethodType(method.getParameterTypes().length));
+        }
+
+        @Override
+        Object invoke(Object arg) throws Throwable {
+            return (Object) handle.invokeExact(arg);
+        }
+
+        @Override
+        Object invoke(Object arg1, Object arg2) throws Throwable {
+            return (Object) handle.invokeExact(arg1, arg2);
+        }
+
+        @Override
+        Object invoke(Object[] args) throws Throwable {
+            return handle.invokeWithArguments(args);
+        }
+    }
+
+    static final class ReflectionInvoker extends SpellInvoker {
+        private final Method method;
+
+        ReflectionInvoker(Method method) {
+            this.method = method;
+        }
+
+        @Override
+        Object invoke(Object arg) throws Throwable {
+            return method.invoke(null, arg);
+        }
+
+        @Override
+        Object invoke(Object arg1, Object arg2) throws Throwable {
+            return method.invoke(null, arg1, arg2);
+        }
+
+        @Override
+        Object invoke(Object[] args) throws Throwable {
+            return method.invoke(null, args);
+        }
+    }
+}
@@ -0,0 +1,470 @@
+package com.caseyjbrooks.clog.parseltongue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * An immutable, pre-parsed Parseltongue message. The parser records the literal text and every action taken inside
+ * each clog (fetching params and results, pushing literals, applying indexers and casting spells) as a list of steps,
+ * in exactly the order the parser would have performed them. Rendering replays those steps against a new set of
+ * params, so a message only has to be lexed and parsed once no matter how many times it is formatted.
+ * <p>
+ * Templates which are rendered very often can be compiled further with {@link Parseltongue#precompile(String...)}.
+ * Compiling fuses clogs which just print a param into a single step, stops recording results when the message never
+ * refers back to them, and gives each spell in the message its own cache of the overloads last resolved there, so
+ * casting it again on the same types of reagents goes straight to the spell's method.
+ */
+public final class Template {
+
+    private final String source;
+    private final Step[] steps;
+    private final boolean plainText;
+    private final boolean compiled;
+
+    Template(String source, Step[] steps) {
+        this(source, steps, false, false);
+    }
+
+    // a message with no markup renders as itself
+    Template(String source) {
+        this(source, new Step[] { new Text(source) }, true, false);
+    }
+
+    private Template(String source, Step[] steps, boolean plainText, boolean compiled) {
+        this.source = source;
+        this.steps = steps;
+        this.plainText = plainText;
+        this.compiled = compiled;
+    }
+
+    /**
+     * Get the message this template was compiled from
+     *
+     * @return  the original message
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Whether the message contains no clogs at all, in which case it always renders as exactly the original message.
+     *
+     * @return  true if the message is plain text
+     */
+    public boolean isPlainText() {
+        return plainText;
+    }
+
+    /**
+     * Whether this template has been compiled for repeated rendering with {@link Parseltongue#precompile(String...)}
+     *
+     * @return  true if the template is compiled
+     */
+    public boolean isCompiled() {
+        return compiled;
+    }
+
+    /**
+     * Compile this template's steps into a form that is faster to render many times over. The compiled template
+     * renders exactly the same output as this one.
+     *
+     * @return  a compiled copy of this template
+     */
+    Template compile() {
+        if(plainText || compiled) {
+            return this;
+        }
+
+        // results only need to be kept if something in the message reads them back
+        boolean resultsRead = false;
+        for(Step step : steps) {
+            if(step instanceof Result) {
+                resultsRead = true;
+                break;
+            }
+        }
+
+        ArrayList<Step> compiledSteps = new ArrayList<>(steps.length);
+        for(int i = 0; i < steps.length; i++) {
+            Step step = steps[i];
+            Step next = (i + 1 < steps.length) ? steps[i + 1] : null;
+
+            if(next instanceof EndClog && ((EndClog) next).hasValue && ((EndClog) next).print) {
+                boolean saveResult = resultsRead && ((EndClog) next).saveResult;
+
+                if(step instanceof Param) {
+                    compiledSteps.add(new PrintParam(((Param) step).index, saveResult));
+                    i++;
+                    continue;
+                }
+                else if(step instanceof AutoParam) {
+                    compiledSteps.add(new PrintParam(-1, saveResult));
+                    i++;
+                    continue;
+                }
+            }
+
+            if(step instanceof EndClog && !resultsRead) {
+                EndClog endClog = (EndClog) step;
+                compiledSteps.add(new EndClog(endClog.hasValue, false, endClog.print));
+            }
+            else if(step instanceof CastSpell) {
+                CastSpell castSpell = (CastSpell) step;
+                compiledSteps.add(new CachedCastSpell(castSpell.name, castSpell.reagentCount));
+            }
+            else {
+                compiledSteps.add(step);
+            }
+        }
+
+        return new Template(source, compiledSteps.toArray(new Step[compiledSteps.size()]), false, true);
+    }
+
+    void render(Parseltongue parseltongue, Object[] params, Appendable output) throws IOException {
+        Evaluation ev = new Evaluation(parseltongue, params, output);
+        for(Step step : steps) {
+            step.run(ev);
+        }
+    }
+
+// Evaluation state, created new for each render
+//--------------------------------------------------------------------------------------------------
+
+    static final class Evaluation {
+        final Parseltongue parseltongue;
+        final Object[] params;
+        final Appendable output;
+
+        // created when the first result is saved
+        ArrayList<Object> results;
+
+        int autoParamCounter;
+
+        private Object[] stack;
+        private int stackSize;
+
+        Evaluation(Parseltongue parseltongue, Object[] params, Appendable output) {
+            this.parseltongue = parseltongue;
+            this.params = (params != null) ? params : new Object[0];
+            this.output = output;
+            this.stack = new Object[8];
+        }
+
+        Object param(int index) {
+            if(index > 0 && (index - 1) < params.length) {
+                return params[index - 1];
+            }
+            else {
+                return null;
+            }
+        }
+
+        Object result(int index) {
+            if(results != null && index > 0 && (index - 1) < results.size()) {
+                return results.get(index - 1);
+            }
+            else {
+                return null;
+            }
+        }
+
+        void saveResult(Object value) {
+            if(results == null) {
+                results = new ArrayList<>();
+            }
+            results.add(value);
+        }
+
+        void push(Object value) {
+            if(stackSize == stack.length) {
+                Object[] newStack = new Object[stack.length * 2];
+                System.arraycopy(stack, 0, newStack, 0, stack.length);
+                stack = newStack;
+            }
+            stack[stackSize++] = value;
+        }
+
+        Object pop() {
+            Object value = stack[--stackSize];
+            stack[stackSize] = null;
+            return value;
+        }
+
+        void clearStack() {
+            while(stackSize > 0) {
+                stack[--stackSize] = null;
+            }
+        }
+    }
+
+// Steps recorded by the parser
+//--------------------------------------------------------------------------------------------------
+
+    static abstract class Step {
+        abstract void run(Evaluation ev) throws IOException;
+    }
+
+    // any ::= (anything but '#{')
+    static final class Text extends Step {
+        final String text;
+
+        Text(String text) {
+            this.text = text;
+        }
+
+        @Override
+        void run(Evaluation ev) throws IOException {
+            ev.output.append(text);
+        }
+    }
+
+    // param ::= DOLLARSIGN NUMBER
+    static final class Param extends Step {
+        final int index;
+
+        Param(int index) {
+            this.index = index;
+        }
+
+        @Override
+        void run(Evaluation ev) {
+            ev.autoParamCounter++;
+            ev.push(ev.param(index));
+        }
+    }
+
+    // autoParam ::=
+    static final class AutoParam extends Step {
+        @Override
+        void run(Evaluation ev) {
+            ev.autoParamCounter++;
+            ev.push(ev.param(ev.autoParamCounter));
+        }
+    }
+
+    // result ::= ATSIGN NUMBER
+    static final class Result extends Step {
+        final int index;
+
+        Result(int index) {
+            this.index = index;
+        }
+
+        @Override
+        void run(Evaluation ev) {
+            ev.push(ev.result(index));
+        }
+    }
+
+    // booleanLit, doubleLit, integerLit, stringLit, nullLit
+    static final class Literal extends Step {
+        final Object value;
+
+        Literal(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        void run(Evaluation ev) {
+            ev.push(value);
+        }
+    }
+
+    // indexer ::= LBRACKET NUMBER RBRACKET
+    static final class ArrayIndex extends Step {
+        final int index;
+
+        ArrayIndex(int index) {
+            this.index = index;
+        }
+
+        @Override
+        void run(Evaluation ev) {
+            ev.push(ev.parseltongue.arrayIndexer(ev.pop(), index));
+        }
+    }
+
+    // indexer ::= LBRACKET WORD RBRACKET
+    static final class PropertyIndex extends Step {
+        final String property;
+
+        PropertyIndex(String property) {
+            this.property = property;
+        }
+
+        @Override
+        void run(Evaluation ev) {
+            ev.push(ev.parseltongue.propertyIndexer(ev.pop(), property));
+        }
+    }
+
+    // indexer ::= LBRACKET stringLit RBRACKET
+    static final class MapIndex extends Step {
+        final String key;
+
+        MapIndex(String key) {
+            this.key = key;
+        }
+
+        @Override
+        void run(Evaluation ev) {
+            ev.push(ev.parseltongue.mapIndexer(ev.pop(), key));
+        }
+    }
+
+    // castSpell ::= spellName (LPAREN reagentList RPAREN)
+    static final class CastSpell extends Step {
+        private static final Object[] NO_REAGENTS = new Object[0];
+
+        final String name;
+
+        // the number of reagents in the spell's parameter list, or -1 if the spell was cast without a list
+        final int reagentCount;
+
+        CastSpell(String name, int reagentCount) {
+            this.name = name;
+            this.reagentCount = reagentCount;
+        }
+
+        @Override
+        void run(Evaluation ev) {
+            Object[] reagents = popReagents(ev);
+            ev.push(ev.parseltongue.transfigureObject(name, ev.pop(), reagents));
+        }
+
+        Object[] popReagents(Evaluation ev) {
+            if(reagentCount > 0) {
+                Object[] reagents = new Object[reagentCount];
+                for(int i = reagentCount - 1; i >= 0; i--) {
+                    reagents[i] = ev.pop();
+                }
+                return reagents;
+            }
+            else if(reagentCount == 0) {
+                return null;
+            }
+            else {
+                return NO_REAGENTS;
+            }
+        }
+    }
+
+    // a reagent whose indexer was invalid
+    static final class Discard extends Step {
+        @Override
+        void run(Evaluation ev) {
+            ev.pop();
+        }
+    }
+
+    // the closing of a clog, successful or not
+    static final class EndClog extends Step {
+        final boolean hasValue;
+        final boolean saveResult;
+        final boolean print;
+
+        EndClog(boolean hasValue, boolean saveResult, boolean print) {
+            this.hasValue = hasValue;
+            this.saveResult = saveResult;
+            this.print = print;
+        }
+
+        @Override
+        void run(Evaluation ev) throws IOException {
+            Object value = (hasValue) ? ev.pop() : null;
+            ev.clearStack();
+
+            if(saveResult) {
+                ev.saveResult(value);
+            }
+            if(print && value != null) {
+                ev.output.append(value.toString());
+            }
+        }
+    }
+
+// Steps only found in compiled templates
+//--------------------------------------------------------------------------------------------------
+
+    // a clog which prints a param directly, such as '{}' or '#{ $1 }'. An index of -1 is the next automatic param.
+    static final class PrintParam extends Step {
+        final int index;
+        final boolean saveResult;
+
+        PrintParam(int index, boolean saveResult) {
+            this.index = index;
+            this.saveResult = saveResult;
+        }
+
+        @Override
+        void run(Evaluation ev) throws IOException {
+            ev.autoParamCounter++;
+            Object value = ev.param((index == -1) ? ev.autoParamCounter : index);
+            ev.clearStack();
+
+            if(saveResult) {
+                ev.saveResult(value);
+            }
+            if(value != null) {
+                ev.output.append(value.toString());
+            }
+        }
+    }
+
+    // casts a spell through the overloads last resolved for it, as long as the reagents have the same types as then
+    // and no spells have been registered since
+    static final class CachedCastSpell extends Step {
+        final CastSpell castSpell;
+        private volatile ResolvedSpell lastResolved;
+
+        CachedCastSpell(String name, int reagentCount) {
+            this.castSpell = new CastSpell(name, reagentCount);
+        }
+
+        @Override
+        void run(Evaluation ev) {
+            Object[] reagents = castSpell.popReagents(ev);
+            Object reagent = ev.pop();
+            Parseltongue parseltongue = ev.parseltongue;
+
+            Map<String, Incantation[]> spells = parseltongue.getSpells();
+            ResolvedSpell resolved = lastResolved;
+
+            if(resolved == null || resolved.spells != spells || !resolved.matches(reagent, reagents)) {
+                Class<?>[] types = Parseltongue.typesOf(reagent, reagents);
+                resolved = new ResolvedSpell(spells, types, parseltongue.resolveSpell(spells, castSpell.name, types));
+                lastResolved = resolved;
+            }
+
+            ev.push(parseltongue.castSpell(resolved.incantations, reagent, reagents));
+        }
+    }
+
+    private static final class ResolvedSpell {
+        final Map<String, Incantation[]> spells;
+        final Class<?>[] types;
+        final Incantation[] incantations;
+
+        ResolvedSpell(Map<String, Incantation[]> spells, Class<?>[] types, Incantation[] incantations) {
+            this.spells = spells;
+            this.types = types;
+            this.incantations = incantations;
+        }
+
+        boolean matches(Object reagent, Object[] reagents) {
+            int reagentCount = (reagents != null) ? reagents.length : 0;
+            if(types.length != reagentCount + 1 || types[0] != Parseltongue.typeOf(reagent)) {
+                return false;
+            }
+
+            for(int i = 0; i < reagentCount; i++) {
+                if(types[i + 1] != Parseltongue.typeOf(reagents[i])) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+}
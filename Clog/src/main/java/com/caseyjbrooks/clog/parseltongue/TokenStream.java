@@ -1,207 +1,262 @@
 package com.caseyjbrooks.clog.parseltongue;
 
-import java.util.LinkedList;
-import java.util.Stack;
-
+/**
+ * Lexes a Parseltongue message by moving a cursor over the original String. Tokens which are always the same text are
+ * shared, and the text of variable-length tokens is taken as a substring of the input wherever possible, so lexing
+ * does not copy or box the input character-by-character. Tokens pushed back by the parser are kept in a plain array
+ * rather than a synchronized Stack, since a TokenStream is only ever used by the one parser that created it.
+ */
 class TokenStream {
-    private LinkedList<Character> chars;
-    private Stack<Token> ungetTokens;
+    private static final Token PIPE         = new Token(Token.Type.PIPE, "|");
+    private static final Token DOT          = new Token(Token.Type.DOT, ".");
+    private static final Token AT           = new Token(Token.Type.AT, "@");
+    private static final Token DOLLARSIGN   = new Token(Token.Type.DOLLARSIGN, "$");
+    private static final Token QUOTE        = new Token(Token.Type.QUOTE, "'");
+    private static final Token COMMA        = new Token(Token.Type.COMMA, ",");
+    private static final Token CLOG_START   = new Token(Token.Type.CLOG_START, "#{");
+    private static final Token HASH         = new Token(Token.Type.HASH, "#");
+    private static final Token CLOG_SIMPLE  = new Token(Token.Type.CLOG_SIMPLE, "{}");
+    private static final Token LCURLYBRACE  = new Token(Token.Type.LCURLYBRACE, "{");
+    private static final Token RCURLYBRACE  = new Token(Token.Type.RCURLYBRACE, "}");
+    private static final Token LBRACKET     = new Token(Token.Type.LBRACKET, "[");
+    private static final Token RBRACKET     = new Token(Token.Type.RBRACKET, "]");
+    private static final Token LPAREN       = new Token(Token.Type.LPAREN, "(");
+    private static final Token RPAREN       = new Token(Token.Type.RPAREN, ")");
+
+    // markers pushed back after reading up to the start of a clog or the end of a string literal
+    private static final Token CLOG_START_MARKER  = new Token(Token.Type.CLOG_START);
+    private static final Token CLOG_SIMPLE_MARKER = new Token(Token.Type.CLOG_SIMPLE);
+    private static final Token QUOTE_MARKER       = new Token(Token.Type.QUOTE);
+
+    private final String input;
+    private final int length;
+    private int position;
+
+    // may contain nulls, which the parser pushes back after reading past the end of the input
+    private Token[] ungetTokens;
+    private int ungetCount;
     private int column;
 
     TokenStream(String expression) {
-        chars = new LinkedList<>();
-        for(int i = 0; i < expression.length(); i++) {
-            chars.add(expression.charAt(i));
-        }
-        ungetTokens = new Stack<>();
+        input = expression;
+        length = expression.length();
+        position = 0;
+        ungetTokens = new Token[4];
     }
 
     Token get() {
-        try {
-            if(ungetTokens.size() > 0) {
-                return ungetTokens.pop();
-            }
-            else if(chars.size() > 0) {
-                char ch = chars.removeFirst();
-                column++;
-                String s;
-
-                switch(ch) {
-                    case ' ':
-                        return get();
-                    case '|':
-                        return new Token(Token.Type.PIPE, "|");
-                    case '.':
-                        return new Token(Token.Type.DOT, ".");
-                    case '@':
-                        return new Token(Token.Type.AT, "@");
-                    case '$':
-                        return new Token(Token.Type.DOLLARSIGN, "$");
-                    case '\'':
-                        return new Token(Token.Type.QUOTE, "'");
-                    case ',':
-                        return new Token(Token.Type.COMMA, ",");
-                    case '#':
-                        if(chars.peekFirst() == '{') {
-                            chars.removeFirst();
-                            column++;
-                            return new Token(Token.Type.CLOG_START, "#{");
-                        }
-                        else {
-                            return new Token(Token.Type.HASH, "#");
-                        }
-                    case '{':
-                        if(chars.peekFirst() == '}') {
-                            return new Token(Token.Type.CLOG_SIMPLE, "{}");
-                        }
-                        else {
-                            return new Token(Token.Type.LCURLYBRACE, "{");
-                        }
-                    case '}':
-                        return new Token(Token.Type.RCURLYBRACE, "}");
-                    case '[':
-                        return new Token(Token.Type.LBRACKET, "[");
-                    case ']':
-                        return new Token(Token.Type.RBRACKET, "]");
-                    case '(':
-                        return new Token(Token.Type.LPAREN, "(");
-                    case ')':
-                        return new Token(Token.Type.RPAREN, ")");
-                    case '0':
-                    case '1':
-                    case '2':
-                    case '3':
-                    case '4':
-                    case '5':
-                    case '6':
-                    case '7':
-                    case '8':
-                    case '9':
-                        s = "";
-                        s += ch;
-                        while(chars.size() > 0 && chars.getFirst() != null &&
-                                Character.isDigit(chars.getFirst())) {
-                            s += chars.removeFirst();
-                            column++;
-                        }
-                        return new Token(Token.Type.NUMBER, Integer.parseInt(s));
-                    default:
-                        s = "";
-                        s += ch;
-                        while(chars.size() > 0 && chars.getFirst() != null &&
-                                Character.isLetter(chars.getFirst())) {
-                            s += chars.removeFirst();
-                            column++;
-                        }
-
-                        //we have our word, but we need to ensure we have removed all
-                        // nonword characters that may have gotten through the above lexing cases
-                        s = s.replaceAll("\\W", "");
-
-                        return new Token(Token.Type.WORD, s);
-                }
-            }
-            else {
-                return null;
-            }
+        if(ungetCount > 0) {
+            return popUngetToken();
         }
-        catch(Exception e) {
-            e.printStackTrace();
-            return null;
-        }
-    }
 
-    Token getAny() {
-        String s = "";
-        if(ungetTokens.size() > 0) {
-            while(ungetTokens.size() > 0) {
-                Token token = ungetTokens.pop();
-                if(token != null) {
-                    s += token.getStringValue();
-                }
-            }
+        // skip spaces between tokens
+        while(position < length && input.charAt(position) == ' ') {
+            position++;
+            column++;
         }
 
-        if(chars.size() > 0) {
-            char ch;
+        if(position >= length) {
+            return null;
+        }
 
-            while(chars.size() > 0 && chars.peekFirst() != null) {
-                ch = chars.removeFirst();
-                column++;
+        char ch = input.charAt(position++);
+        column++;
 
-                if(ch == '#' && chars.peekFirst() == '{') {
-                    chars.removeFirst();
+        switch(ch) {
+            case '|':
+                return PIPE;
+            case '.':
+                return DOT;
+            case '@':
+                return AT;
+            case '$':
+                return DOLLARSIGN;
+            case '\'':
+                return QUOTE;
+            case ',':
+                return COMMA;
+            case '#':
+                if(position >= length) {
+                    return null;
+                }
+                else if(input.charAt(position) == '{') {
+                    position++;
                     column++;
-                    ungetTokens.push(new Token(Token.Type.CLOG_START));
-                    return new Token(Token.Type.ANY, s);
+                    return CLOG_START;
+                }
+                else {
+                    return HASH;
                 }
-                else if(ch == '{' && chars.peekFirst() == '}') {
-//                    chars.removeFirst();
-//                    column++;
-                    ungetTokens.push(new Token(Token.Type.CLOG_SIMPLE));
-                    return new Token(Token.Type.ANY, s);
+            case '{':
+                if(position >= length) {
+                    return null;
+                }
+                else if(input.charAt(position) == '}') {
+                    return CLOG_SIMPLE;
                 }
                 else {
-                    s += ch;
+                    return LCURLYBRACE;
                 }
+            case '}':
+                return RCURLYBRACE;
+            case '[':
+                return LBRACKET;
+            case ']':
+                return RBRACKET;
+            case '(':
+                return LPAREN;
+            case ')':
+                return RPAREN;
+            case '0':
+            case '1':
+            case '2':
+            case '3':
+            case '4':
+            case '5':
+            case '6':
+            case '7':
+            case '8':
+            case '9':
+                return number(ch);
+            default:
+                return word(position - 1);
+        }
+    }
+
+    private Token number(char first) {
+        long value = first - '0';
+        boolean overflow = false;
+
+        while(position < length && Character.isDigit(input.charAt(position))) {
+            if(!overflow) {
+                value = (value * 10) + Character.digit(input.charAt(position), 10);
+                overflow = value > Integer.MAX_VALUE;
             }
+            position++;
+            column++;
+        }
 
-            return new Token(Token.Type.ANY, s);
+        // numbers too large for an int are not valid tokens
+        return (overflow) ? null : new Token(Token.Type.NUMBER, (int) value);
+    }
+
+    private Token word(int start) {
+        // a word is any single character followed by a run of letters. Only the ASCII word characters in that run
+        // are kept, which drops any other characters that fell through the lexing cases above
+        boolean allWordChars = isWordChar(input.charAt(start));
+        while(position < length && Character.isLetter(input.charAt(position))) {
+            allWordChars = allWordChars && isWordChar(input.charAt(position));
+            position++;
+            column++;
         }
-        else {
+
+        if(allWordChars) {
+            return new Token(Token.Type.WORD, input.substring(start, position));
+        }
+
+        StringBuilder sb = new StringBuilder(position - start);
+        for(int i = start; i < position; i++) {
+            char ch = input.charAt(i);
+            if(isWordChar(ch)) {
+                sb.append(ch);
+            }
+        }
+        return new Token(Token.Type.WORD, sb.toString());
+    }
+
+    private static boolean isWordChar(char ch) {
+        return (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9') || ch == '_';
+    }
+
+    Token getAny() {
+        StringBuilder pushedBack = popUngetTokens();
+
+        if(position >= length) {
             return new Token(Token.Type.ANY, "");
         }
+
+        int start = position;
+        while(position < length) {
+            char ch = input.charAt(position++);
+            column++;
+
+            if(ch == '#' && position < length && input.charAt(position) == '{') {
+                position++;
+                column++;
+                unget(CLOG_START_MARKER);
+                return new Token(Token.Type.ANY, text(pushedBack, start, position - 2));
+            }
+            else if(ch == '{' && position < length && input.charAt(position) == '}') {
+                unget(CLOG_SIMPLE_MARKER);
+                return new Token(Token.Type.ANY, text(pushedBack, start, position - 1));
+            }
+        }
+
+        return new Token(Token.Type.ANY, text(pushedBack, start, position));
     }
 
     Token getString() {
-        String s = "";
-        if(ungetTokens.size() > 0) {
-            while(ungetTokens.size() > 0) {
-                Token token = ungetTokens.pop();
-                if(token != null) {
-                    s += token.getStringValue();
-                }
+        StringBuilder pushedBack = popUngetTokens();
+
+        if(position >= length) {
+            return new Token(Token.Type.STRING, "");
+        }
+
+        int start = position;
+        while(position < length) {
+            char ch = input.charAt(position++);
+            column++;
+
+            if(ch == '\'') {
+                unget(QUOTE_MARKER);
+                return new Token(Token.Type.STRING, text(pushedBack, start, position - 1));
             }
         }
 
-        if(chars.size() > 0) {
-            char ch;
+        return new Token(Token.Type.STRING, text(pushedBack, start, position));
+    }
 
-            while(chars.size() > 0 && chars.peekFirst() != null) {
-                ch = chars.removeFirst();
-                column++;
+    private StringBuilder popUngetTokens() {
+        if(ungetCount == 0) {
+            return null;
+        }
 
-                if(ch == '\'') {
-                    ungetTokens.push(new Token(Token.Type.QUOTE));
-                    return new Token(Token.Type.STRING, s);
-                }
-                else {
-                    s += ch;
-                }
+        StringBuilder sb = new StringBuilder();
+        while(ungetCount > 0) {
+            Token token = popUngetToken();
+            if(token != null) {
+                sb.append(token.getStringValue());
             }
+        }
+        return sb;
+    }
 
-            return new Token(Token.Type.STRING, s);
+    private String text(StringBuilder pushedBack, int start, int end) {
+        if(pushedBack == null) {
+            return input.substring(start, end);
         }
         else {
-            return new Token(Token.Type.STRING, "");
+            return pushedBack.append(input, start, end).toString();
         }
     }
 
+    private Token popUngetToken() {
+        Token token = ungetTokens[--ungetCount];
+        ungetTokens[ungetCount] = null;
+        return token;
+    }
 
     void unget(Token token) {
-        ungetTokens.push(token);
+        if(ungetCount == ungetTokens.length) {
+            Token[] newUngetTokens = new Token[ungetTokens.length * 2];
+            System.arraycopy(ungetTokens, 0, newUngetTokens, 0, ungetTokens.length);
+            ungetTokens = newUngetTokens;
+        }
+        ungetTokens[ungetCount++] = token;
     }
 
     boolean hasTokens() {
-        if(ungetTokens != null && ungetTokens.size() > 0) {
-            return true;
-        }
-        else if(chars != null && chars.size() > 0) {
-            return true;
-        }
-        else {
-            return false;
-        }
+        return ungetCount > 0 || position < length;
     }
 
     int getColumn() {
@@ -209,35 +264,25 @@ class TokenStream {
     }
 
     void unclog() {
-        if(ungetTokens.size() > 0) {
-            while(ungetTokens.size() > 0) {
-                Token token = ungetTokens.pop();
-                if(token != null && token.equals(Token.Type.RCURLYBRACE)) {
-                    return;
-                }
+        while(ungetCount > 0) {
+            Token token = popUngetToken();
+            if(token != null && token.equals(Token.Type.RCURLYBRACE)) {
+                return;
             }
         }
 
-        if(chars.size() > 0) {
-            char ch;
+        while(position < length) {
+            char ch = input.charAt(position++);
+            column++;
 
-            while(chars.size() > 0 && chars.peekFirst() != null) {
-                ch = chars.removeFirst();
-                column++;
-
-                if(ch == '}') {
-                    return;
-                }
+            if(ch == '}') {
+                return;
             }
         }
     }
 
     @Override
     public String toString() {
-        String s = "";
-        for(int i = 0; i < chars.size(); i++) {
-            s += chars.get(i);
-        }
-        return s;
+        return input.substring(position);
     }
 }
@@ -0,0 +1,309 @@
+package com.caseyjbrooks.clog;
+
+import com.caseyjbrooks.clog.parseltongue.Parseltongue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.Mockito.*;
+
+public class AsyncClogLoggerTest {
+
+    private ClogLogger mockLogger;
+    private AsyncClogLogger underTest;
+    private String tag;
+    private String message;
+    private Throwable throwable;
+
+    @Before
+    public void setup() {
+        mockLogger = mock(ClogLogger.class);
+        when(mockLogger.isActive()).thenReturn(true);
+        when(mockLogger.priority()).thenReturn(Clog.Priority.INFO);
+        underTest = new AsyncClogLogger(mockLogger);
+        tag = "tag";
+        message = "message";
+        throwable = new Throwable("throwable");
+    }
+
+    @After
+    public void teardown() {
+        underTest.shutdown();
+    }
+
+    @Test
+    public void testBasicLogging() throws Exception {
+        assertThat(underTest.isActive(), is(true));
+        assertThat(underTest.priority(), is(Clog.Priority.INFO));
+        assertThat(underTest.getDelegate(), is(sameInstance(mockLogger)));
+
+        assertThat(underTest.log(tag, message), is(equalTo(0)));
+        assertThat(underTest.log(tag, message, throwable), is(equalTo(0)));
+        assertThat(underTest.log(tag, message, null), is(equalTo(0)));
+        underTest.flush();
+
+        verify(mockLogger, times(1)).log(tag, message);
+        verify(mockLogger, times(1)).log(tag, message, throwable);
+        verify(mockLogger, times(1)).log(tag, message, null);
+    }
+
+    @Test
+    public void testWaitStrategies() throws Exception {
+        for(AsyncClogLogger.WaitStrategy waitStrategy : AsyncClogLogger.WaitStrategy.values()) {
+            RecordingLogger recordingLogger = new RecordingLogger(null);
+            AsyncClogLogger logger = new AsyncClogLogger(recordingLogger, 8, waitStrategy, AsyncClogLogger.OverflowPolicy.BLOCK, null);
+
+            for(int i = 0; i < 100; i++) {
+                logger.log(tag, Integer.toString(i));
+            }
+            logger.flush();
+            assertThat(waitStrategy.toString(), recordingLogger.messages.size(), is(equalTo(100)));
+
+            logger.shutdown();
+        }
+    }
+
+    @Test
+    public void testManyProducers() throws Exception {
+        final int threadCount = 8;
+        final int iterations = 5000;
+
+        RecordingLogger recordingLogger = new RecordingLogger(null);
+        final AsyncClogLogger logger = new AsyncClogLogger(recordingLogger, 64, AsyncClogLogger.WaitStrategy.YIELDING, AsyncClogLogger.OverflowPolicy.BLOCK, null);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        List<Future<?>> results = new ArrayList<>();
+
+        for(int i = 0; i < threadCount; i++) {
+            final String producer = Integer.toString(i);
+            results.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    for(int j = 0; j < iterations; j++) {
+                        logger.log(producer, Integer.toString(j));
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        start.countDown();
+        for(Future<?> result : results) {
+            result.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        logger.shutdown();
+
+        // every message is passed on exactly once, and each producer's messages stay in order
+        assertThat(recordingLogger.messages.size(), is(equalTo(threadCount * iterations)));
+        int[] nextMessage = new int[threadCount];
+        for(String[] logged : recordingLogger.messages) {
+            int producer = Integer.parseInt(logged[0]);
+            assertThat(Integer.parseInt(logged[1]), is(equalTo(nextMessage[producer])));
+            nextMessage[producer]++;
+        }
+        assertThat(logger.getDroppedCount(), is(equalTo(0L)));
+    }
+
+    @Test
+    public void testDropNewest() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingLogger recordingLogger = new RecordingLogger(release);
+        AsyncClogLogger logger = new AsyncClogLogger(recordingLogger, 4, AsyncClogLogger.WaitStrategy.SLEEPING, AsyncClogLogger.OverflowPolicy.DROP_NEWEST, null);
+
+        // the consumer is held up by the first message, so only the messages that fit in the buffer are kept
+        for(int i = 0; i < 20; i++) {
+            logger.log(tag, Integer.toString(i));
+        }
+        assertThat(logger.getDroppedCount(), is(equalTo(16L)));
+
+        release.countDown();
+        logger.flush();
+        assertThat(recordingLogger.messages.size(), is(equalTo(4)));
+        assertThat(recordingLogger.messages.get(3)[1], is(equalTo("3")));
+
+        logger.shutdown();
+    }
+
+    @Test
+    public void testDropBelowPriority() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingLogger verboseLogger = new RecordingLogger(release, Clog.Priority.VERBOSE);
+        RecordingLogger errorLogger = new RecordingLogger(null, Clog.Priority.ERROR);
+
+        final AsyncClogLogger asyncVerbose = new AsyncClogLogger(verboseLogger, 2, AsyncClogLogger.WaitStrategy.BLOCKING, AsyncClogLogger.OverflowPolicy.DROP_BELOW_PRIORITY, Clog.Priority.WARNING);
+        final AsyncClogLogger asyncError = asyncVerbose.wrap(errorLogger);
+
+        // fill the buffer while the consumer is held up, so that further verbose messages are dropped
+        asyncVerbose.log(tag, "verbose 1");
+        asyncVerbose.log(tag, "verbose 2");
+        asyncVerbose.log(tag, "verbose 3");
+        assertThat(asyncVerbose.getDroppedCount(), is(equalTo(1L)));
+
+        // messages of a high enough priority wait for room instead
+        Thread errorThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                asyncError.log(tag, "error");
+            }
+        });
+        errorThread.start();
+        errorThread.join(100);
+        assertThat(errorThread.isAlive(), is(true));
+
+        release.countDown();
+        errorThread.join(10000);
+        asyncVerbose.flush();
+
+        assertThat(verboseLogger.messages.size(), is(equalTo(2)));
+        assertThat(errorLogger.messages.size(), is(equalTo(1)));
+        assertThat(asyncError.getDroppedCount(), is(equalTo(1L)));
+
+        asyncVerbose.shutdown();
+    }
+
+    @Test
+    public void testShutdown() throws Exception {
+        RecordingLogger recordingLogger = new RecordingLogger(null);
+        AsyncClogLogger logger = new AsyncClogLogger(recordingLogger, 16, AsyncClogLogger.WaitStrategy.BLOCKING, AsyncClogLogger.OverflowPolicy.BLOCK, null);
+
+        for(int i = 0; i < 1000; i++) {
+            logger.log(tag, Integer.toString(i));
+        }
+
+        // every message is passed on before shutting down, and later messages are passed on right away
+        assertThat(logger.shutdown(10, TimeUnit.SECONDS), is(true));
+        assertThat(recordingLogger.messages.size(), is(equalTo(1000)));
+
+        logger.log(tag, message, throwable);
+        assertThat(recordingLogger.messages.size(), is(equalTo(1001)));
+        assertThat(recordingLogger.messages.get(1000)[1], is(equalTo(message)));
+    }
+
+    @Test
+    public void testDeferredFormatting() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingLogger recordingLogger = new RecordingLogger(release);
+        AsyncClogLogger logger = new AsyncClogLogger(recordingLogger);
+
+        Map<String, ClogLogger> loggers = new HashMap<>();
+        loggers.put(null, logger);
+        ClogProfile profile = new ClogProfile(loggers, new Parseltongue());
+        StringBuilder mutable = new StringBuilder("before");
+
+        // messages are formatted on the logging thread by default
+        assertThat(profile.isDeferredFormatting(), is(false));
+        profile.tag(tag).log("formatted #{ $1 }", mutable);
+        assertThat(profile.getLastLog(), is(equalTo("formatted before")));
+
+        // with deferred formatting the arguments are formatted by the consumer thread, which is held up by the first
+        // message, so they are formatted with their values at that time
+        profile.setDeferredFormatting(true);
+        profile.tag(tag).log("deferred #{ $1 }", mutable);
+        assertThat(profile.getLastLog(), is(equalTo("deferred #{ $1 }")));
+
+        // a snapshot of the arguments is formatted with their values when they were logged
+        profile.setArgumentSnapshot(new ArgumentSnapshot() {
+            @Override
+            public Object[] snapshot(Object[] args) {
+                Object[] copy = new Object[args.length];
+                for(int i = 0; i < args.length; i++) {
+                    copy[i] = String.valueOf(args[i]);
+                }
+                return copy;
+            }
+        });
+        profile.tag(tag).log("snapshot #{ $1 }", mutable);
+
+        mutable.setLength(0);
+        mutable.append("after");
+        release.countDown();
+        logger.flush();
+
+        assertThat(recordingLogger.messages.size(), is(equalTo(3)));
+        assertThat(recordingLogger.messages.get(0)[1], is(equalTo("formatted before")));
+        assertThat(recordingLogger.messages.get(1)[1], is(equalTo("deferred after")));
+        assertThat(recordingLogger.messages.get(2)[1], is(equalTo("snapshot before")));
+        assertThat(recordingLogger.messages.get(2)[0], is(equalTo(tag)));
+
+        logger.shutdown();
+    }
+
+    @Test
+    public void testFailingLogger() throws Exception {
+        doThrow(new AssertionError("delegate")).when(mockLogger).log(tag, "error");
+        ClogFormatter failingFormatter = mock(ClogFormatter.class);
+        when(failingFormatter.format("deferred")).thenThrow(new StackOverflowError());
+
+        // an Error from the logger or from deferred formatting does not stop the consumer thread
+        underTest.log(tag, "error");
+        underTest.logDeferred(tag, failingFormatter, "deferred", new Object[0], null);
+        underTest.log(tag, message);
+        underTest.flush();
+
+        verify(mockLogger, times(1)).log(tag, "error");
+        verify(mockLogger, times(1)).log(tag, "deferred");
+        verify(mockLogger, times(1)).log(tag, message);
+    }
+
+    // records each message as {tag, message}, optionally holding up the consumer thread on the first message
+    private static class RecordingLogger implements ClogLogger {
+        final List<String[]> messages = Collections.synchronizedList(new ArrayList<String[]>());
+        final CountDownLatch release;
+        final Clog.Priority priority;
+
+        RecordingLogger(CountDownLatch release) {
+            this(release, Clog.Priority.DEFAULT);
+        }
+
+        RecordingLogger(CountDownLatch release, Clog.Priority priority) {
+            this.release = release;
+            this.priority = priority;
+        }
+
+        @Override
+        public boolean isActive() {
+            return true;
+        }
+
+        @Override
+        public int log(String tag, String message) {
+            if(release != null) {
+                try {
+                    release.await();
+                }
+                catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            messages.add(new String[] { tag, message });
+            return 0;
+        }
+
+        @Override
+        public int log(String tag, String message, Throwable throwable) {
+            return log(tag, message);
+        }
+
+        @Override
+        public Clog.Priority priority() {
+            return priority;
+        }
+    }
+}
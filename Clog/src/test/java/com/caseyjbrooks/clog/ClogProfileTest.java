@@ -1,10 +1,25 @@
 package com.caseyjbrooks.clog;
 
+import com.caseyjbrooks.clog.parseltongue.Parseltongue;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.MatcherAssert.*;
 import static org.hamcrest.Matchers.*;
@@ -12,6 +27,9 @@ import static org.mockito.Mockito.*;
 
 public class ClogProfileTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private ClogProfile underTest;
     private ClogFormatter mockFormatter;
     private Map<String, ClogLogger> mockLoggers;
@@ -56,6 +74,18 @@ public class ClogProfileTest {
     public void testFormatter() throws Exception {
         underTest.format(message, args);
         verify(mockFormatter, times(1)).format(message, args);
+
+        // formatters which cannot write to an Appendable have their String appended
+        StringBuilder output = new StringBuilder();
+        underTest.format(output, message, args);
+        verify(mockFormatter, times(2)).format(message, args);
+        assertThat(output.toString(), is(equalTo(message)));
+
+        AppendableClogFormatter appendableFormatter = mock(AppendableClogFormatter.class);
+        underTest.setFormatter(appendableFormatter);
+        underTest.format(output, message, args);
+        verify(appendableFormatter, times(1)).format(output, message, args);
+        verify(appendableFormatter, never()).format(message, args);
     }
 
     @Test
@@ -98,6 +128,48 @@ public class ClogProfileTest {
         assertThat(underTest.getLoggers().values(), containsInAnyOrder(mockLoggerAtNull, mockActiveLogger, mockInactiveLogger));
     }
 
+    @Test
+    public void testLoggersAreCopied() throws Exception {
+        ClogLogger otherLogger = mock(ClogLogger.class);
+        when(otherLogger.isActive()).thenReturn(true);
+
+        // changing the map directly does not change where messages go until the loggers are set again
+        underTest.getLoggers().put(mockActiveLoggerKey, otherLogger);
+        underTest.tagged(tag).loggerWithFormatter(mockActiveLoggerKey, null, message, null, args);
+        verify(mockActiveLogger, times(1)).log(tag, message);
+        verify(otherLogger, never()).log(tag, message);
+
+        underTest.setLoggers(underTest.getLoggers());
+        underTest.tagged(tag).loggerWithFormatter(mockActiveLoggerKey, null, message, null, args);
+        verify(mockActiveLogger, times(1)).log(tag, message);
+        verify(otherLogger, times(1)).log(tag, message);
+    }
+
+    @Test
+    public void testAddFileLogger() throws Exception {
+        File file = folder.newFile("clog.log");
+        FileClogLogger fileLogger = new FileClogLogger(file);
+        when(mockActiveLogger.priority()).thenReturn(Clog.Priority.WARNING);
+
+        // each key keeps the priority of the logger it replaces, or gets the priority of the key, and shares the file
+        underTest.addFileLogger(fileLogger, mockActiveLoggerKey, Clog.KEY_WTF);
+        ClogLogger activeLogger = underTest.getLoggers().get(mockActiveLoggerKey);
+        ClogLogger fatalLogger = underTest.getLoggers().get(Clog.KEY_WTF);
+        assertThat(activeLogger, is(instanceOf(FileClogLogger.class)));
+        assertThat(activeLogger.priority(), is(Clog.Priority.WARNING));
+        assertThat(fatalLogger.priority(), is(Clog.Priority.FATAL));
+        assertThat(((FileClogLogger) fatalLogger).getFile(), is(equalTo(fileLogger.getFile())));
+
+        underTest.tagged(tag).loggerWithFormatter(mockActiveLoggerKey, null, message, null, args);
+        underTest.tagged(tag).loggerWithFormatter(Clog.KEY_WTF, null, message, null, args);
+        fileLogger.close();
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertThat(lines.size(), is(equalTo(2)));
+        assertThat(lines.get(0).endsWith("[WARN] tag: message"), is(true));
+        assertThat(lines.get(1).endsWith("[FATAL] tag: message"), is(true));
+    }
+
     @Test
     public void testLoggingNullNoThrowable() throws Exception {
         underTest.loggerInternal(null, message, null, args);
@@ -246,6 +318,69 @@ public class ClogProfileTest {
         verify(mockLoggerAtNull, times(2)).log(anyString(), anyString());
     }
 
+    @Test
+    public void testCachedFilterDecisions() throws Exception {
+        // the decision for this tag and logger is cached the first time it is logged
+        underTest.tag("noisy").loggerInternal(mockActiveLoggerKey, message, null, args);
+        underTest.tag("noisy").loggerInternal(mockActiveLoggerKey, message, null, args);
+        verify(mockActiveLogger, times(2)).log(anyString(), anyString());
+
+        // and must be forgotten as soon as any filter changes
+        for(int i = 0; i < 150; i++) {
+            underTest.addTagToBlacklist("noisy" + i);
+        }
+        underTest.addTagToBlacklist("noisy");
+        underTest.tag("noisy").loggerInternal(mockActiveLoggerKey, message, null, args);
+        underTest.tag("quiet").loggerInternal(mockActiveLoggerKey, message, null, args);
+        verify(mockActiveLogger, times(3)).log(anyString(), anyString());
+
+        underTest.addLoggerToBlacklist(mockActiveLoggerKey);
+        underTest.tag("quiet").loggerInternal(mockActiveLoggerKey, message, null, args);
+        verify(mockActiveLogger, times(3)).log(anyString(), anyString());
+
+        underTest.clearLoggerBlacklist();
+        underTest.clearTagBlacklist();
+        underTest.tag("noisy").loggerInternal(mockActiveLoggerKey, message, null, args);
+        verify(mockActiveLogger, times(4)).log(anyString(), anyString());
+    }
+
+    @Test
+    public void testIsLoggable() throws Exception {
+        when(mockLoggerAtNull.priority()).thenReturn(Clog.Priority.DEFAULT);
+        when(mockActiveLogger.priority()).thenReturn(Clog.Priority.ERROR);
+        when(mockInactiveLogger.priority()).thenReturn(Clog.Priority.ERROR);
+
+        assertThat(underTest.isLoggable(null), is(true));
+        assertThat(underTest.isLoggable(mockActiveLoggerKey), is(true));
+        assertThat(underTest.isLoggable(mockInactiveLoggerKey), is(false));
+
+        // a logger can become active or inactive at any time
+        when(mockInactiveLogger.isActive()).thenReturn(true);
+        assertThat(underTest.isLoggable(mockInactiveLoggerKey), is(true));
+        when(mockInactiveLogger.isActive()).thenReturn(false);
+        assertThat(underTest.isLoggable(mockInactiveLoggerKey), is(false));
+
+        // unknown keys fall back to the logger at null
+        assertThat(underTest.isDebugEnabled(), is(true));
+
+        underTest.setMinPriority(Clog.Priority.WARNING);
+        assertThat(underTest.isLoggable(null), is(false));
+        assertThat(underTest.isDebugEnabled(), is(false));
+        assertThat(underTest.isLoggable(mockActiveLoggerKey), is(true));
+
+        // nothing is formatted and no tag is found for messages which will not be logged
+        underTest.tag("one").loggerInternal(null, message, null, args);
+        verify(mockFormatter, never()).format(message, args);
+        verify(underTest, never()).isClassnameInternal(anyString());
+        assertThat(underTest.getCurrentTag(), is(not(equalTo("one"))));
+
+        underTest.addTagToBlacklist("two");
+        underTest.pushTag("two");
+        assertThat(underTest.isLoggable(mockActiveLoggerKey), is(false));
+        assertThat(underTest.tagged("three").isLoggable(mockActiveLoggerKey), is(true));
+        assertThat(underTest.tagged("two").isLoggable(mockActiveLoggerKey), is(false));
+    }
+
     @Test
     public void testDebugTools() throws Exception {
         underTest.pushTag(tag);
@@ -284,5 +419,143 @@ public class ClogProfileTest {
         assertThat(underTest.getLastTag(), is(equalTo("one")));
     }
 
+    @Test
+    public void testCallerTag() throws Exception {
+        // the caller's class is only looked for when the message is actually logged
+        underTest.loggerInternal(mockInactiveLoggerKey, message, null, args);
+        verify(underTest, never()).isClassnameInternal(anyString());
+
+        // the stack of a spy includes Mockito's own classes, so check the tag with a real profile
+        ClogProfile profile = new ClogProfile(mockLoggers, mockFormatter);
+        profile.loggerInternal(mockActiveLoggerKey, message, null, args);
+        assertThat(profile.getLastTag(), is(equalTo("ClogProfileTest")));
+        assertThat(profile.getCurrentTag(), is(equalTo("ClogProfileTest")));
+    }
+
+    @Test
+    public void testTaggedClog() throws Exception {
+        TaggedClog tagged = underTest.tagged("one");
+        assertThat(underTest.tagged("one"), is(sameInstance(tagged)));
+        assertThat(tagged.getTag(), is(equalTo("one")));
+
+        // logging through a TaggedClog does not change or use the profile's own tags
+        underTest.pushTag("two");
+        tagged.log(message, args);
+        assertThat(underTest.getLastTag(), is(equalTo("one")));
+        assertThat(underTest.getCurrentTag(), is(equalTo("two")));
+
+        // the tag filter is checked again after it changes
+        underTest.addTagToBlacklist("one");
+        underTest.flush();
+        tagged.log(message, args);
+        assertThat(underTest.getLastTag(), is(nullValue()));
+
+        underTest.clearTagBlacklist();
+        tagged.log(message, args);
+        assertThat(underTest.getLastTag(), is(equalTo("one")));
+    }
+
+    @Test
+    public void testMarkers() throws Exception {
+        TaggedClog tagged = underTest.tagged("one");
+
+        // markers are filtered separately from the tag, and messages without a marker are not filtered by marker
+        underTest.addMarkerToBlacklist("noisy");
+        assertThat(tagged.isLoggable(mockActiveLoggerKey, "noisy"), is(false));
+        assertThat(tagged.isLoggable(mockActiveLoggerKey, "audit"), is(true));
+        assertThat(tagged.isLoggable(mockActiveLoggerKey, null), is(true));
+
+        tagged.loggerWithMarker(mockActiveLoggerKey, "noisy", null, message, null, args);
+        assertThat(underTest.getLastTag(), is(nullValue()));
+
+        tagged.loggerWithMarker(mockActiveLoggerKey, "audit", null, message, null, args);
+        assertThat(underTest.getLastTag(), is(equalTo("one")));
+        assertThat(underTest.getLastLog(), is(equalTo(message)));
 
+        // a blacklisted marker is not logged even when it is also whitelisted
+        underTest.addMarkerToWhitelist("audit");
+        underTest.addMarkerToWhitelist("noisy");
+        assertThat(tagged.isLoggable(mockActiveLoggerKey, "audit"), is(true));
+        assertThat(tagged.isLoggable(mockActiveLoggerKey, "noisy"), is(false));
+        assertThat(tagged.isLoggable(mockActiveLoggerKey, "other"), is(false));
+        assertThat(tagged.isLoggable(mockActiveLoggerKey, null), is(true));
+
+        underTest.clearMarkerWhitelist();
+        underTest.clearMarkerBlacklist();
+        assertThat(tagged.isLoggable(mockActiveLoggerKey, "noisy"), is(true));
+
+        // loggers can choose which markers they handle
+        ClogMarkerLogger markerLogger = mock(ClogMarkerLogger.class);
+        when(markerLogger.isActive()).thenReturn(true);
+        when(markerLogger.isMarkerLogged("audit")).thenReturn(true);
+        underTest.addLogger("marked", markerLogger);
+
+        assertThat(tagged.isLoggable("marked", "audit"), is(true));
+        assertThat(tagged.isLoggable("marked", "other"), is(false));
+        assertThat(tagged.isLoggable("marked", null), is(true));
+        assertThat(tagged.isLoggable(mockActiveLoggerKey, "other"), is(true));
+
+        tagged.loggerWithMarker("marked", "other", null, message, null, args);
+        tagged.loggerWithMarker("marked", "other", null, message, null, args);
+        tagged.loggerWithMarker("marked", "audit", null, message, null, args);
+        verify(markerLogger, times(1)).log("one", message);
+
+        // the logger's decision for each marker is only asked for once
+        verify(markerLogger, times(1)).isMarkerLogged("other");
+    }
+
+    @Test
+    public void testTagsAreThreadLocal() throws Exception {
+        final AtomicInteger leakedTags = new AtomicInteger();
+        final AtomicInteger loggedMessages = new AtomicInteger();
+
+        // each message is the tag it was logged with, so any other tag must have leaked from another thread
+        ClogLogger checkingLogger = new DefaultLogger() {
+            @Override
+            public int log(String tag, String message) {
+                loggedMessages.incrementAndGet();
+                if(!message.equals(tag)) {
+                    leakedTags.incrementAndGet();
+                }
+                return 0;
+            }
+        };
+
+        Map<String, ClogLogger> loggers = new HashMap<>();
+        loggers.put(null, checkingLogger);
+        final ClogProfile profile = new ClogProfile(loggers, new Parseltongue());
+
+        final int threadCount = 32;
+        final int iterations = 2000;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        List<Future<?>> futures = new ArrayList<>();
+
+        for(int i = 0; i < threadCount; i++) {
+            final String threadTag = "thread" + i;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    for(int j = 0; j < iterations; j++) {
+                        profile.tag(threadTag + "-temporary").loggerInternal(null, "{}", null, threadTag + "-temporary");
+
+                        profile.pushTag(threadTag);
+                        profile.loggerInternal(null, "{}", null, threadTag);
+                        profile.popTag();
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        start.countDown();
+        for(Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertThat(loggedMessages.get(), is(equalTo(threadCount * iterations * 2)));
+        assertThat(leakedTags.get(), is(equalTo(0)));
+    }
 }
@@ -5,9 +5,18 @@ import org.junit.Test;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 public class ClogTest {
     @Test
@@ -282,4 +291,69 @@ public class ClogTest {
 
         Clog.getInstance().popTag();
     }
+
+    @Test
+    public void testPriorityKeys() {
+        for(Clog.Priority priority : Clog.Priority.values()) {
+            assertSame(priority, Clog.Priority.getByKey(priority.toString()));
+            assertSame(priority, Clog.Priority.getByKey(priority.getKey()));
+        }
+
+        assertSame(Clog.Priority.WARNING, Clog.Priority.getByKey(Clog.KEY_W));
+        assertSame(Clog.Priority.ERROR, Clog.Priority.getByKey(Clog.KEY_E));
+        assertSame(Clog.Priority.DEFAULT, Clog.Priority.getByKey("unknown"));
+    }
+
+    @Test
+    public void testConcurrentProfileSwitching() throws Exception {
+        final AtomicInteger suppliedProfiles = new AtomicInteger();
+        final AtomicInteger missingProfiles = new AtomicInteger();
+        final ClogProfile profileOne = new ClogProfile();
+        final ClogProfile profileTwo = new ClogProfile();
+
+        Clog.addProfile("concurrentOne", new ProfileSupplier() {@Override public ClogProfile get() { suppliedProfiles.incrementAndGet(); return profileOne; }});
+        Clog.addProfile("concurrentTwo", new ProfileSupplier() {@Override public ClogProfile get() { suppliedProfiles.incrementAndGet(); return profileTwo; }});
+
+        final int threadCount = 8;
+        final int iterations = 2000;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        List<Future<?>> results = new ArrayList<>();
+
+        // half of the threads switch profiles while the others read the current profile, which must always be one of
+        // the fully created profiles
+        for(int i = 0; i < threadCount; i++) {
+            final boolean switching = (i % 2) == 0;
+            results.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    for(int j = 0; j < iterations; j++) {
+                        if(switching) {
+                            Clog.setCurrentProfile(((j % 2) == 0) ? "concurrentOne" : "concurrentTwo");
+                        }
+                        else if(Clog.getInstance() == null) {
+                            missingProfiles.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        start.countDown();
+        for(Future<?> result : results) {
+            result.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertEquals(0, missingProfiles.get());
+
+        // each supplier is only asked for its profile once, and the profile is kept
+        assertEquals(2, suppliedProfiles.get());
+        assertSame(profileOne, Clog.setCurrentProfile("concurrentOne"));
+        assertSame(profileOne, Clog.getProfiles().get("concurrentOne"));
+        assertSame(profileTwo, Clog.setCurrentProfile("concurrentTwo"));
+        assertEquals(2, suppliedProfiles.get());
+    }
 }
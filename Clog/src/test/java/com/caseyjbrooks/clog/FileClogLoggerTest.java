@@ -0,0 +1,235 @@
+package com.caseyjbrooks.clog;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+public class FileClogLoggerTest {
+
+    private static final String TIMESTAMP = "\\d{4}-\\d\\d-\\d\\d \\d\\d:\\d\\d:\\d\\d\\.\\d{3} ";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private FileClogLogger underTest;
+    private String tag;
+    private String message;
+    private Throwable throwable;
+
+    @Before
+    public void setup() throws Exception {
+        file = folder.newFile("clog.log");
+        underTest = new FileClogLogger(file, Clog.Priority.INFO, 1024, 50, FileClogLogger.FsyncPolicy.ON_FLUSH);
+        tag = "tag";
+        message = "message";
+        throwable = new Throwable("throwable");
+    }
+
+    @After
+    public void teardown() throws Exception {
+        underTest.close();
+    }
+
+    private List<String> lines() throws Exception {
+        return Files.readAllLines(file.toPath(), Charset.forName("UTF-8"));
+    }
+
+    private static List<String> gzippedLines(File gzipped) throws Exception {
+        List<String> lines = new ArrayList<>();
+        try(BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(gzipped)), "UTF-8"))) {
+            String line;
+            while((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    @Test
+    public void testBasicLogging() throws Exception {
+        assertThat(underTest.isActive(), is(true));
+        assertThat(underTest.priority(), is(Clog.Priority.INFO));
+        assertThat(underTest.getFile(), is(equalTo(file)));
+
+        assertThat(underTest.log(tag, message), is(equalTo(0)));
+        assertThat(underTest.log(tag, message, throwable), is(equalTo(0)));
+        underTest.withPriority(Clog.Priority.ERROR).log(tag, message);
+        underTest.flush();
+
+        List<String> lines = lines();
+        assertThat(lines.size(), is(equalTo(3)));
+        assertThat(lines.get(0).matches(TIMESTAMP + "\\[INFO\\] tag: message"), is(true));
+        assertThat(lines.get(1).matches(TIMESTAMP + "\\[INFO\\] tag: message \\(throwable\\)"), is(true));
+        assertThat(lines.get(2).matches(TIMESTAMP + "\\[ERROR\\] tag: message"), is(true));
+
+        // nothing is logged once the file is closed
+        underTest.close();
+        assertThat(underTest.isActive(), is(false));
+        underTest.log(tag, message);
+        assertThat(lines().size(), is(equalTo(3)));
+    }
+
+    @Test
+    public void testUtf8() throws Exception {
+        // a lone surrogate cannot be encoded, and is replaced as String.getBytes() does
+        underTest.log("t\u00e4g", "h\u00e9llo \u20ac \uD834\uDD1E \uD800 done");
+        underTest.flush();
+
+        assertThat(lines().get(0), endsWith("t\u00e4g: h\u00e9llo \u20ac \uD834\uDD1E ? done"));
+    }
+
+    @Test
+    public void testLongLines() throws Exception {
+        StringBuilder longMessage = new StringBuilder();
+        for(int i = 0; i < 500; i++) {
+            longMessage.append(i % 10);
+        }
+
+        // lines longer than a buffer are written in order with the others
+        underTest.log(tag, "before");
+        underTest.log(tag, longMessage.toString());
+        underTest.log(tag, "after");
+        underTest.flush();
+
+        List<String> lines = lines();
+        assertThat(lines.size(), is(equalTo(3)));
+        assertThat(lines.get(0), endsWith("tag: before"));
+        assertThat(lines.get(1), endsWith("tag: " + longMessage));
+        assertThat(lines.get(2), endsWith("tag: after"));
+    }
+
+    @Test
+    public void testFlushInterval() throws Exception {
+        underTest.log(tag, message);
+
+        // the line is written by the background thread without flushing
+        long deadline = System.currentTimeMillis() + 5000;
+        while(lines().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(lines().size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void testRollingBySize() throws Exception {
+        underTest.close();
+        FileClogLogger.RollingPolicy rollingPolicy = new FileClogLogger.RollingPolicy(2048, 0, true, 2, 0);
+        underTest = new FileClogLogger(file, Clog.Priority.INFO, 1024, 50, FileClogLogger.FsyncPolicy.ON_FLUSH, rollingPolicy);
+        assertThat(underTest.getRollingPolicy(), is(sameInstance(rollingPolicy)));
+
+        for(int i = 0; i < 500; i++) {
+            underTest.log(tag, Integer.toString(i));
+        }
+        underTest.close();
+
+        // rolled files are compressed, only the newest two are kept, and no file grows past the maximum size
+        File rolledDirectory = file.getParentFile();
+        File newest = null;
+        int rolledCount = 0;
+        for(File rolled : rolledDirectory.listFiles()) {
+            if(rolled.getName().matches("clog\\.log\\.\\d{6}\\.gz")) {
+                rolledCount++;
+                if(newest == null || rolled.getName().compareTo(newest.getName()) > 0) {
+                    newest = rolled;
+                }
+            }
+            else {
+                assertThat(rolled.getName(), is(equalTo("clog.log")));
+            }
+        }
+        assertThat(rolledCount, is(equalTo(2)));
+        assertThat(file.length(), is(lessThanOrEqualTo(2048L)));
+
+        // the current file carries on exactly where the newest rolled file stops
+        List<String> rolledLines = gzippedLines(newest);
+        List<String> lines = lines();
+        assertThat(lines.get(lines.size() - 1), endsWith("tag: 499"));
+        int lastRolled = Integer.parseInt(rolledLines.get(rolledLines.size() - 1).substring(rolledLines.get(rolledLines.size() - 1).indexOf("tag: ") + 5));
+        assertThat(lines.get(0), endsWith("tag: " + (lastRolled + 1)));
+    }
+
+    @Test
+    public void testRollingByTime() throws Exception {
+        underTest.close();
+        FileClogLogger.RollingPolicy rollingPolicy = new FileClogLogger.RollingPolicy(0, 100, false, 0, 0);
+        underTest = new FileClogLogger(file, Clog.Priority.INFO, 1024, 50, FileClogLogger.FsyncPolicy.ON_FLUSH, rollingPolicy);
+
+        underTest.log(tag, "before");
+        underTest.flush();
+        Thread.sleep(250);
+        underTest.log(tag, "after");
+        underTest.flush();
+
+        // the file is rolled over once an interval boundary has passed
+        File rolled = new File(file.getPath() + ".000001");
+        assertThat(rolled.exists(), is(true));
+        assertThat(Files.readAllLines(rolled.toPath(), Charset.forName("UTF-8")).get(0), endsWith("tag: before"));
+        assertThat(lines().size(), is(equalTo(1)));
+        assertThat(lines().get(0), endsWith("tag: after"));
+    }
+
+    @Test
+    public void testManyThreads() throws Exception {
+        final int threadCount = 8;
+        final int iterations = 5000;
+
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        List<Future<?>> results = new ArrayList<>();
+
+        for(int i = 0; i < threadCount; i++) {
+            final String thread = Integer.toString(i);
+            results.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    for(int j = 0; j < iterations; j++) {
+                        underTest.log(thread, Integer.toString(j));
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        start.countDown();
+        for(Future<?> result : results) {
+            result.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        underTest.flush();
+
+        // every line is written whole, exactly once, and each thread's lines stay in order
+        List<String> lines = lines();
+        assertThat(lines.size(), is(equalTo(threadCount * iterations)));
+        int[] nextLine = new int[threadCount];
+        for(String line : lines) {
+            assertThat(line, line.matches(TIMESTAMP + "\\[INFO\\] \\d: \\d+"), is(true));
+            String[] parts = line.substring(line.indexOf("] ") + 2).split(": ");
+            int thread = Integer.parseInt(parts[0]);
+            assertThat(Integer.parseInt(parts[1]), is(equalTo(nextLine[thread])));
+            nextLine[thread]++;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package com.caseyjbrooks.clog;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.fail;
+
+public class MappedClogLoggerTest {
+
+    private static final String TIMESTAMP = "\\d{4}-\\d\\d-\\d\\d \\d\\d:\\d\\d:\\d\\d\\.\\d{3} ";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private MappedClogLogger underTest;
+    private String tag;
+    private String message;
+    private Throwable throwable;
+
+    @Before
+    public void setup() throws Exception {
+        directory = folder.newFolder("logs");
+        underTest = new MappedClogLogger(directory, "clog", Clog.Priority.INFO, 1024);
+        tag = "tag";
+        message = "message";
+        throwable = new Throwable("throwable");
+    }
+
+    @After
+    public void teardown() throws Exception {
+        underTest.close();
+    }
+
+    private List<String> lines() throws Exception {
+        List<String> lines = new ArrayList<>();
+        for(File segment : underTest.getSegments()) {
+            lines.addAll(MappedClogLogger.readSegment(segment));
+        }
+        return lines;
+    }
+
+    // the length of a record holding 'line' and its line separator
+    private static int recordLength(String line) {
+        return (8 + line.getBytes(StandardCharsets.UTF_8).length + 1 + 3) & ~3;
+    }
+
+    // the length of every complete record in a segment
+    private static long recordsLength(File segment) throws Exception {
+        long length = 0;
+        for(String line : MappedClogLogger.readSegment(segment)) {
+            length += recordLength(line);
+        }
+        return length;
+    }
+
+    @Test
+    public void testBasicLogging() throws Exception {
+        assertThat(underTest.isActive(), is(true));
+        assertThat(underTest.priority(), is(Clog.Priority.INFO));
+        assertThat(underTest.getSegment(), is(equalTo(new File(directory, "clog.000001.log"))));
+
+        assertThat(underTest.log(tag, message), is(equalTo(0)));
+        assertThat(underTest.log(tag, message, throwable), is(equalTo(0)));
+        underTest.withPriority(Clog.Priority.ERROR).log("t\u00e4g", "h\u00e9llo \u20ac \uD834\uDD1E");
+        underTest.flush();
+
+        List<String> lines = lines();
+        assertThat(lines.size(), is(equalTo(3)));
+        assertThat(lines.get(0).matches(TIMESTAMP + "\\[INFO\\] tag: message"), is(true));
+        assertThat(lines.get(1).matches(TIMESTAMP + "\\[INFO\\] tag: message \\(throwable\\)"), is(true));
+        assertThat(lines.get(2).matches(TIMESTAMP + "\\[ERROR\\] t\u00e4g: h\u00e9llo \u20ac \uD834\uDD1E"), is(true));
+
+        // the segment is sized up front, and its unused tail is cut off when closing
+        assertThat(underTest.getSegment().length(), is(equalTo(1024L)));
+        underTest.close();
+        assertThat(underTest.isActive(), is(false));
+        assertThat(underTest.getSegment().length(), is(equalTo((long) (recordLength(lines.get(0)) + recordLength(lines.get(1)) + recordLength(lines.get(2))))));
+
+        // nothing is logged once closed
+        underTest.log(tag, message);
+        assertThat(lines().size(), is(equalTo(3)));
+    }
+
+    @Test
+    public void testRolling() throws Exception {
+        for(int i = 0; i < 100; i++) {
+            underTest.log(tag, Integer.toString(i));
+        }
+
+        // full segments are truncated to their last record, and messages carry on in the next segment
+        List<File> segments = underTest.getSegments();
+        assertThat(segments.size(), is(greaterThan(1)));
+        assertThat(segments.get(0).length(), is(both(greaterThan(900L)).and(lessThanOrEqualTo(1024L))));
+        assertThat(underTest.getSegment(), is(equalTo(segments.get(segments.size() - 1))));
+
+        List<String> lines = lines();
+        assertThat(lines.size(), is(equalTo(100)));
+        for(int i = 0; i < 100; i++) {
+            assertThat(lines.get(i), endsWith("tag: " + i));
+        }
+
+        // full segments are finished in the background, and have been by the time flush() returns
+        underTest.flush();
+        for(File segment : segments.subList(0, segments.size() - 1)) {
+            assertThat(segment.getName(), segment.length(), is(equalTo(recordsLength(segment))));
+        }
+        assertThat(underTest.getDroppedRecords(), is(equalTo(0L)));
+    }
+
+    @Test
+    public void testSegmentCannotBeCreated() throws Exception {
+        // a directory in the way of the next segment stops it from being created
+        assertThat(new File(directory, "clog.000002.log").mkdir(), is(true));
+
+        int logged = 0;
+        while(underTest.isActive()) {
+            underTest.log(tag, Integer.toString(logged++));
+        }
+
+        // the record which did not fit is dropped and counted, and the logger closes itself
+        List<String> lines = MappedClogLogger.readSegment(new File(directory, "clog.000001.log"));
+        assertThat(lines.size(), is(equalTo(logged - 1)));
+        assertThat(underTest.getDroppedRecords(), is(equalTo(1L)));
+
+        try {
+            underTest.flush();
+            fail("flush() should report that the segment could not be created");
+        }
+        catch(IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testLongLines() throws Exception {
+        StringBuilder longMessage = new StringBuilder();
+        for(int i = 0; i < 2000; i++) {
+            longMessage.append(i % 10);
+        }
+
+        // a message too long for a segment gets a segment of its own
+        underTest.log(tag, "before");
+        underTest.log(tag, longMessage.toString());
+        underTest.log(tag, "after");
+
+        List<File> segments = underTest.getSegments();
+        assertThat(segments.size(), is(equalTo(3)));
+        assertThat(MappedClogLogger.readSegment(segments.get(1)).size(), is(equalTo(1)));
+
+        List<String> lines = lines();
+        assertThat(lines.size(), is(equalTo(3)));
+        assertThat(lines.get(0), endsWith("tag: before"));
+        assertThat(lines.get(1), endsWith("tag: " + longMessage));
+        assertThat(lines.get(2), endsWith("tag: after"));
+    }
+
+    @Test
+    public void testRecovery() throws Exception {
+        underTest.close();
+
+        // a process that dies while writing its fourth record leaves the segment at its full size, with a record which
+        // does not match its checksum
+        File crashedDirectory = folder.newFolder("crashed");
+        MappedClogLogger crashed = new MappedClogLogger(crashedDirectory, "clog", Clog.Priority.INFO, 1024);
+        for(int i = 0; i < 4; i++) {
+            crashed.log(tag, Integer.toString(i));
+        }
+        crashed.flush();
+
+        File segment = crashed.getSegment();
+        List<String> written = MappedClogLogger.readSegment(segment);
+        assertThat(written.size(), is(equalTo(4)));
+        int fourthRecord = recordLength(written.get(0)) + recordLength(written.get(1)) + recordLength(written.get(2));
+        try(RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(fourthRecord + 8);
+            file.write('X');
+        }
+        assertThat(MappedClogLogger.readSegment(segment).size(), is(equalTo(3)));
+
+        // a new logger carries on after the last complete record, and writes over the incomplete one
+        underTest = new MappedClogLogger(crashedDirectory, "clog", Clog.Priority.INFO, 1024);
+        assertThat(underTest.getSegment(), is(equalTo(segment)));
+        underTest.log(tag, "recovered");
+        underTest.close();
+
+        List<String> lines = MappedClogLogger.readSegment(segment);
+        assertThat(lines.size(), is(equalTo(4)));
+        assertThat(lines.get(2), endsWith("tag: 2"));
+        assertThat(lines.get(3), endsWith("tag: recovered"));
+        assertThat(segment.length(), is(equalTo((long) (fourthRecord + recordLength(lines.get(3))))));
+    }
+
+    @Test
+    public void testCloseWhileRolling() throws Exception {
+        final int threadCount = 4;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        List<Future<?>> results = new ArrayList<>();
+
+        for(int i = 0; i < threadCount; i++) {
+            results.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    while(underTest.isActive()) {
+                        underTest.log(tag, message);
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        start.countDown();
+        Thread.sleep(50);
+        underTest.close();
+        for(Future<?> result : results) {
+            result.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        // whichever segment was current when closing is truncated to its records like every segment before it
+        for(File segment : underTest.getSegments()) {
+            assertThat(segment.getName(), segment.length(), is(equalTo(recordsLength(segment))));
+        }
+    }
+
+    @Test
+    public void testManyThreads() throws Exception {
+        final int threadCount = 8;
+        final int iterations = 2000;
+
+        underTest.close();
+        underTest = new MappedClogLogger(folder.newFolder("threads"), "clog", Clog.Priority.INFO, 16 * 1024);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        List<Future<?>> results = new ArrayList<>();
+
+        for(int i = 0; i < threadCount; i++) {
+            final String thread = Integer.toString(i);
+            results.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    for(int j = 0; j < iterations; j++) {
+                        underTest.log(thread, Integer.toString(j));
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        start.countDown();
+        for(Future<?> result : results) {
+            result.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        underTest.close();
+
+        // every record is written whole, exactly once, and each thread's records stay in order
+        List<String> lines = lines();
+        assertThat(lines.size(), is(equalTo(threadCount * iterations)));
+        int[] nextLine = new int[threadCount];
+        for(String line : lines) {
+            assertThat(line, line.matches(TIMESTAMP + "\\[INFO\\] \\d: \\d+"), is(true));
+            String[] parts = line.substring(line.indexOf("] ") + 2).split(": ");
+            int thread = Integer.parseInt(parts[0]);
+            assertThat(Integer.parseInt(parts[1]), is(equalTo(nextLine[thread])));
+            nextLine[thread]++;
+        }
+    }
+}
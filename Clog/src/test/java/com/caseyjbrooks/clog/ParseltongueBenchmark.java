@@ -0,0 +1,65 @@
+package com.caseyjbrooks.clog;
+
+import com.caseyjbrooks.clog.parseltongue.Parseltongue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+
+/**
+ * Measures the bytes allocated by each call to Parseltongue.format() when parsing every message, when rendering
+ * cached templates, and when rendering precompiled templates. This is not run as part of the test suite; run its
+ * main method on a HotSpot JVM, which can report the memory allocated by a thread.
+ */
+public class ParseltongueBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 20000;
+    private static final int ITERATIONS = 100000;
+
+    private static final String[] MESSAGES = new String[] {
+            "Plain message without any markup",
+            "Hello {}, welcome to {}",
+            "#{ $1 | join(', ') }",
+            "#{ $1 | uppercase } and #{ $2[1] | lowercase } then #{ @1 | length }"
+    };
+
+    public static void main(String[] args) throws Exception {
+        Object[] params = new Object[] { new String[] { "Harry", "Ron", "Hermione" }, new String[] { "Fred", "George" } };
+
+        Parseltongue parsing = new Parseltongue();
+        parsing.getTemplateCache().setMaxSize(0);
+
+        Parseltongue cached = new Parseltongue();
+
+        Parseltongue precompiled = new Parseltongue();
+        precompiled.precompile(MESSAGES);
+
+        for(String message : MESSAGES) {
+            System.out.println(message);
+            System.out.println("    parsed each time:  " + bytesPerFormat(parsing, message, params) + " bytes/format");
+            System.out.println("    cached template:   " + bytesPerFormat(cached, message, params) + " bytes/format");
+            System.out.println("    precompiled:       " + bytesPerFormat(precompiled, message, params) + " bytes/format");
+        }
+    }
+
+    private static long bytesPerFormat(Parseltongue parseltongue, String message, Object[] params) throws Exception {
+        for(int i = 0; i < WARMUP_ITERATIONS; i++) {
+            parseltongue.format(message, params);
+        }
+
+        long before = allocatedBytes();
+        for(int i = 0; i < ITERATIONS; i++) {
+            parseltongue.format(message, params);
+        }
+        long after = allocatedBytes();
+
+        return (after - before) / ITERATIONS;
+    }
+
+    // com.sun.management.ThreadMXBean is specific to HotSpot, so it is called reflectively
+    private static long allocatedBytes() throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Method getThreadAllocatedBytes = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", long.class);
+        return (Long) getThreadAllocatedBytes.invoke(threads, Thread.currentThread().getId());
+    }
+}
@@ -1,16 +1,21 @@
 package com.caseyjbrooks.clog;
 
+import com.caseyjbrooks.clog.parseltongue.Incantation;
 import com.caseyjbrooks.clog.parseltongue.Parseltongue;
 
 import com.caseyjbrooks.clog.parseltongue.Spell;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class ParseltongueTest {
     public static class ParselTongueTestClass {
@@ -308,6 +313,67 @@ public class ParseltongueTest {
         assertEquals(expectedOutput, output);
     }
 
+// Test that messages can be rendered directly into an existing Appendable
+//--------------------------------------------------------------------------------------------------
+
+    @Test
+    public void testAppendableOutput() throws Exception {
+        Parseltongue parseltongue = new Parseltongue();
+        parseltongue.findSpells(ParseltongueTest.class);
+
+        ArrayList<String> names = new ArrayList<>();
+        names.add("Harry");
+        names.add("Ron");
+
+        StringBuilder output = new StringBuilder("[INFO] ");
+        parseltongue.format(output, "#{ $1 | join(', ') } and {}", names, "Hermione");
+        assertEquals("[INFO] Harry, Ron and Hermione", output.toString());
+
+        // nested formatting from within a spell renders into its own buffer
+        String expectedOutput = "harry, ron, ";
+        assertEquals(expectedOutput, parseltongue.format("#{ $1 | repeat('#{$1}, ') | lowercase }", names));
+        assertEquals(expectedOutput, parseltongue.format("#{ $1 | repeat('#{$1}, ') | lowercase }", names));
+    }
+
+// Test that plain text which only looks like the start of a clog is printed as-is
+//--------------------------------------------------------------------------------------------------
+
+    @Test
+    public void testPlainText() {
+        Parseltongue parseltongue = new Parseltongue();
+
+        String input, expectedOutput, output;
+
+        input = "Ticket #";
+        expectedOutput = "Ticket #";
+        output = parseltongue.format(input);
+        assertEquals(expectedOutput, output);
+
+        input = "Open brace {";
+        expectedOutput = "Open brace {";
+        output = parseltongue.format(input);
+        assertEquals(expectedOutput, output);
+
+        // messages without any clogs are passed through untouched
+        input = "Just a {plain} #message, with $1 no markup";
+        output = parseltongue.format(input, "Harry");
+        assertSame(input, output);
+        assertTrue(parseltongue.compile(input).isPlainText());
+        assertFalse(parseltongue.compile("Not {} plain").isPlainText());
+        assertFalse(parseltongue.compile("#{ $1 }").isPlainText());
+
+        input = "Tab\tand unicode \u00e9 are kept: #{ $1 }";
+        expectedOutput = "Tab\tand unicode \u00e9 are kept: Harry";
+        output = parseltongue.format(input, "Harry");
+        assertEquals(expectedOutput, output);
+
+        // numbers too large to be an index are invalid, so the clog disappears
+        input = "Index: #{ $99999999999 }.";
+        expectedOutput = "Index: .";
+        output = parseltongue.format(input, "Harry");
+        assertEquals(expectedOutput, output);
+    }
+
 // Test that data is moved through the pipeline correctly, accounting for errors
 //--------------------------------------------------------------------------------------------------
 
@@ -453,6 +519,174 @@ public class ParseltongueTest {
         assertEquals(expectedOutput, output);
     }
 
+// Test that properties can be read through JavaBean getters, and that missing properties stay missing once cached
+//--------------------------------------------------------------------------------------------------
+
+    public static class ParselTongueBeanClass {
+        private String name = "Harry";
+        private boolean wizard = true;
+        private String house = "Gryffindor";
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isWizard() {
+            return wizard;
+        }
+    }
+
+    @Test
+    public void testPropertyAccessors() {
+        Parseltongue parseltongue = new Parseltongue();
+
+        String input = "#{ $1[name] } #{ $1[wizard] } #{ $1[house] }";
+
+        // repeated lookups use the cached accessors, and 'house' has no public field or getter
+        for(int i = 0; i < 3; i++) {
+            assertEquals("Harry true ", parseltongue.format(input, new ParselTongueBeanClass()));
+        }
+
+        // private fields are preferred over getters once they are accessible
+        parseltongue.setPrivateFieldsAccessible(true);
+        assertEquals("Harry true Gryffindor", parseltongue.format(input, new ParselTongueBeanClass()));
+
+        // making private fields accessible does not affect other instances
+        assertEquals("Harry true ", new Parseltongue().format(input, new ParselTongueBeanClass()));
+
+        // accessors resolved while private fields were accessible are not used once they no longer are
+        parseltongue.setPrivateFieldsAccessible(false);
+        assertEquals("Harry true ", parseltongue.format(input, new ParselTongueBeanClass()));
+    }
+
+// Test that keys are read from Maps and from objects with a 'get(String)' method, and that other objects stay unindexed
+//--------------------------------------------------------------------------------------------------
+
+    @Test
+    public void testKeyAccessors() {
+        Parseltongue parseltongue = new Parseltongue();
+
+        HashMap<String, String> map = new HashMap<>();
+        map.put("he", "Hermione");
+        map.put("fg", null);
+
+        String input = "#{ $1['he'] }#{ $1['fg'] }#{ $1['r'] }";
+
+        for(int i = 0; i < 3; i++) {
+            assertEquals("Hermione", parseltongue.format(input, map));
+            assertEquals("HermioneFred and GeorgeRon", parseltongue.format(input, new ParselTongueTestClass()));
+            assertEquals("", parseltongue.format(input, new ParselTongueBeanClass()));
+        }
+    }
+
+// Test that overloaded spells are resolved by the types of their reagents, even after being cached
+//--------------------------------------------------------------------------------------------------
+
+    @Test
+    public void testSpellOverloads() {
+        Parseltongue parseltongue = new Parseltongue();
+
+        String input = "#{ $1 | length }";
+
+        assertEquals("5", parseltongue.format(input, "Harry"));
+        assertEquals("3", parseltongue.format(input, new Object[] { new String[] { "Harry", "Ron", "Hermione" } }));
+        assertEquals("2", parseltongue.format(input, Arrays.asList("Harry", "Ron")));
+        assertEquals("5", parseltongue.format(input, "Fred "));
+
+        // no overload of 'length' accepts an Integer
+        assertEquals("", parseltongue.format(input, 12));
+
+        // spells registered later replace the cached resolution
+        parseltongue.addSpells(new Incantation() {
+            @Override public String getName() { return "length"; }
+            @Override public Object call(Object reagent, Object... reagents) { return "custom"; }
+        });
+        assertEquals("5", parseltongue.format(input, "Harry"));
+        assertEquals("custom", parseltongue.format(input, 12));
+    }
+
+// Test that precompiled templates render the same output as parsed ones, and keep up with newly registered spells
+//--------------------------------------------------------------------------------------------------
+
+    @Test
+    public void testPrecompile() {
+        Parseltongue parseltongue = new Parseltongue();
+        parseltongue.findSpells(ParseltongueTest.class);
+
+        String[] inputs = new String[] {
+                "{}, {} and {}",
+                "#{ $1 | uppercase }, #{ $2 } and #{ @1 | lowercase }",
+                "#{ $1 | length } #{ $1[1] }"
+        };
+
+        Parseltongue compiled = new Parseltongue();
+        compiled.findSpells(ParseltongueTest.class);
+        compiled.precompile(inputs);
+
+        for(String input : inputs) {
+            assertTrue(compiled.compile(input).isCompiled());
+            assertFalse(parseltongue.compile(input).isCompiled());
+
+            // render twice with each set of params to use the spells cached in the compiled template
+            for(int i = 0; i < 2; i++) {
+                assertEquals(parseltongue.format(input, "Harry", "Ron", "Hermione"), compiled.format(input, "Harry", "Ron", "Hermione"));
+                Object names = new String[] { "Harry", "Ron" };
+                assertEquals(parseltongue.format(input, names), compiled.format(input, names));
+                assertEquals(parseltongue.format(input), compiled.format(input));
+            }
+        }
+
+        // precompiled templates are not evicted from the template cache
+        compiled.getTemplateCache().setMaxSize(0);
+        assertTrue(compiled.compile(inputs[0]).isCompiled());
+
+        compiled.addSpells(new Incantation() {
+            @Override public String getName() { return "length"; }
+            @Override public Object call(Object reagent, Object... reagents) { return "custom"; }
+        });
+        assertEquals("custom ", compiled.format(inputs[2], 12));
+    }
+
+// Test that messages are only parsed once, and that cached templates render with new params each time
+//--------------------------------------------------------------------------------------------------
+
+    @Test
+    public void testTemplateCache() {
+        Parseltongue parseltongue = new Parseltongue();
+        parseltongue.findSpells(ParseltongueTest.class);
+        parseltongue.getTemplateCache().setMaxSize(2);
+
+        String input, expectedOutput, output;
+
+        input = "#{ $1 | uppercase }, {}";
+        expectedOutput = "HARRY, Ron";
+        output = parseltongue.format(input, "Harry", "Ron");
+        assertEquals(expectedOutput, output);
+        assertEquals(0, parseltongue.getTemplateCache().getHitCount());
+        assertEquals(1, parseltongue.getTemplateCache().getMissCount());
+
+        expectedOutput = "HERMIONE, Fred and George";
+        output = parseltongue.format(input, "Hermione", "Fred and George");
+        assertEquals(expectedOutput, output);
+        assertEquals(1, parseltongue.getTemplateCache().getHitCount());
+        assertEquals(1, parseltongue.getTemplateCache().getMissCount());
+        assertSame(parseltongue.compile(input), parseltongue.compile(input));
+
+        parseltongue.format("one");
+        parseltongue.format("two");
+        parseltongue.format("three");
+        assertEquals(2, parseltongue.getTemplateCache().size());
+        assertEquals(2, parseltongue.getTemplateCache().getEvictionCount());
+
+        // disabling the cache still formats correctly, it just parses every time
+        parseltongue.getTemplateCache().setMaxSize(0);
+        assertEquals(0, parseltongue.getTemplateCache().size());
+        expectedOutput = "RON, Harry";
+        output = parseltongue.format(input, "Ron", "Harry");
+        assertEquals(expectedOutput, output);
+        assertEquals(0, parseltongue.getTemplateCache().size());
+    }
+
 //test spells
 //--------------------------------------------------------------------------------------------------
 
@@ -3,9 +3,26 @@ package org.slf4j.impl;
 import org.slf4j.ILoggerFactory;
 import org.slf4j.Logger;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 public class Clog4jLoggerFactory implements ILoggerFactory {
+
+    // loggers are immutable apart from their cached tag handle, so one logger is shared by everyone asking for a name
+    private final ConcurrentMap<String, Logger> loggers = new ConcurrentHashMap<>();
+
     @Override
     public Logger getLogger(String name) {
-        return new Clog4jLoggerImpl(name);
+        Logger logger = loggers.get(name);
+
+        if(logger == null) {
+            logger = new Clog4jLoggerImpl(name);
+            Logger existing = loggers.putIfAbsent(name, logger);
+            if(existing != null) {
+                logger = existing;
+            }
+        }
+
+        return logger;
     }
 }
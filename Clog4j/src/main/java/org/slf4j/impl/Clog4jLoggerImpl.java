@@ -1,6 +1,8 @@
 package org.slf4j.impl;
 
 import com.caseyjbrooks.clog.Clog;
+import com.caseyjbrooks.clog.ClogProfile;
+import com.caseyjbrooks.clog.TaggedClog;
 import org.slf4j.Logger;
 import org.slf4j.Marker;
 
@@ -8,81 +10,127 @@ public class Clog4jLoggerImpl implements Logger {
 
     private String name;
 
+    // the handle for this logger's name in the profile that was current when it was last used. TaggedClog is
+    // immutable, so it is safe to read and replace without synchronization.
+    private TaggedClog taggedClog;
+
     public Clog4jLoggerImpl(String name) {
         this.name = name;
     }
 
+    private TaggedClog tagged() {
+        ClogProfile profile = Clog.getInstance();
+        TaggedClog handle = taggedClog;
+
+        if(handle == null || handle.getProfile() != profile) {
+            handle = profile.tagged(name);
+            taggedClog = handle;
+        }
+
+        return handle;
+    }
+
+    // markers are filtered by name, separately from the tag, which is always this logger's name
+    private static String markerName(Marker marker) {
+        return (marker != null) ? marker.getName() : null;
+    }
+
+    // SLF4J messages are formatted with SLF4J's own syntax rather than as Clog markup, and only once they are known to
+    // be logged. A Throwable given as the last argument is logged as the exception, as SLF4J does.
+    private void log(String logger, Marker marker, String msg, Throwable t) {
+        tagged().loggerWithMarker(logger, markerName(marker), Slf4jMessageFormatter.INSTANCE, msg, t);
+    }
+
+    // disabled messages return before the arguments are searched for a Throwable, and never copy them
+    private void log(String logger, Marker marker, String format, Object... arguments) {
+        TaggedClog handle = tagged();
+        String markerName = markerName(marker);
+
+        if(!handle.isLoggable(logger, markerName)) {
+            return;
+        }
+
+        Throwable t = Slf4jMessageFormatter.getThrowable(arguments);
+
+        if(t != null) {
+            arguments = Slf4jMessageFormatter.withoutThrowable(arguments);
+        }
+
+        handle.loggerWithMarker(logger, markerName, Slf4jMessageFormatter.INSTANCE, format, t, arguments);
+    }
+
     @Override
     public String getName() {
         return name;
     }
 
-    // What is enabled?
-    @Override public boolean isTraceEnabled()              { return true; }
-    @Override public boolean isTraceEnabled(Marker marker) { return true; }
-    @Override public boolean isDebugEnabled()              { return true; }
-    @Override public boolean isDebugEnabled(Marker marker) { return true; }
-    @Override public boolean isInfoEnabled()               { return true; }
-    @Override public boolean isInfoEnabled(Marker marker)  { return true; }
-    @Override public boolean isWarnEnabled()               { return true; }
-    @Override public boolean isWarnEnabled(Marker marker)  { return true; }
-    @Override public boolean isErrorEnabled()              { return true; }
-    @Override public boolean isErrorEnabled(Marker marker) { return true; }
+    // What is enabled? Answered by the current profile's filters and loggers, which cache their decisions until the
+    // profile's configuration changes
+    @Override public boolean isTraceEnabled()              { return tagged().isVerboseEnabled();                         }
+    @Override public boolean isTraceEnabled(Marker marker) { return tagged().isLoggable(Clog.KEY_V, markerName(marker)); }
+    @Override public boolean isDebugEnabled()              { return tagged().isDebugEnabled();                           }
+    @Override public boolean isDebugEnabled(Marker marker) { return tagged().isLoggable(Clog.KEY_D, markerName(marker)); }
+    @Override public boolean isInfoEnabled()               { return tagged().isInfoEnabled();                            }
+    @Override public boolean isInfoEnabled(Marker marker)  { return tagged().isLoggable(Clog.KEY_I, markerName(marker)); }
+    @Override public boolean isWarnEnabled()               { return tagged().isWarningEnabled();                         }
+    @Override public boolean isWarnEnabled(Marker marker)  { return tagged().isLoggable(Clog.KEY_W, markerName(marker)); }
+    @Override public boolean isErrorEnabled()              { return tagged().isErrorEnabled();                           }
+    @Override public boolean isErrorEnabled(Marker marker) { return tagged().isLoggable(Clog.KEY_E, markerName(marker)); }
 
     // Logger implementations
-    @Override public void trace(String msg)                                             { Clog.tag(name).v(msg);                            }
-    @Override public void trace(String format, Object arg)                              { Clog.tag(name).v(format, arg);                    }
-    @Override public void trace(String format, Object arg1, Object arg2)                { Clog.tag(name).v(format, arg1, arg2);             }
-    @Override public void trace(String format, Object... arguments)                     { Clog.tag(name).v(format, arguments);              }
-    @Override public void trace(String msg, Throwable t)                                { Clog.tag(name).v(msg, t);                         }
-    @Override public void trace(Marker marker, String msg)                              { Clog.tag(marker.getName()).v(msg);                }
-    @Override public void trace(Marker marker, String format, Object arg)               { Clog.tag(marker.getName()).v(format, arg);        }
-    @Override public void trace(Marker marker, String format, Object arg1, Object arg2) { Clog.tag(marker.getName()).v(format, arg1, arg2); }
-    @Override public void trace(Marker marker, String format, Object... argArray)       { Clog.tag(marker.getName()).v(format, argArray);   }
-    @Override public void trace(Marker marker, String msg, Throwable t)                 { Clog.tag(marker.getName()).v(msg, t);             }
-
-    @Override public void debug(String msg)                                             { Clog.tag(name).d(msg);                            }
-    @Override public void debug(String format, Object arg)                              { Clog.tag(name).d(format, arg);                    }
-    @Override public void debug(String format, Object arg1, Object arg2)                { Clog.tag(name).d(format, arg1, arg2);             }
-    @Override public void debug(String format, Object... arguments)                     { Clog.tag(name).d(format, arguments);              }
-    @Override public void debug(String msg, Throwable t)                                { Clog.tag(name).d(msg, t);                         }
-    @Override public void debug(Marker marker, String msg)                              { Clog.tag(marker.getName()).d(msg);                }
-    @Override public void debug(Marker marker, String format, Object arg)               { Clog.tag(marker.getName()).d(format, arg);        }
-    @Override public void debug(Marker marker, String format, Object arg1, Object arg2) { Clog.tag(marker.getName()).d(format, arg1, arg2); }
-    @Override public void debug(Marker marker, String format, Object... argArray)       { Clog.tag(marker.getName()).d(format, argArray);   }
-    @Override public void debug(Marker marker, String msg, Throwable t)                 { Clog.tag(marker.getName()).d(msg, t);             }
-
-    @Override public void info(String msg)                                              { Clog.tag(name).i(msg);                            }
-    @Override public void info(String format, Object arg)                               { Clog.tag(name).i(format, arg);                    }
-    @Override public void info(String format, Object arg1, Object arg2)                 { Clog.tag(name).i(format, arg1, arg2);             }
-    @Override public void info(String format, Object... arguments)                      { Clog.tag(name).i(format, arguments);              }
-    @Override public void info(String msg, Throwable t)                                 { Clog.tag(name).i(msg, t);                         }
-    @Override public void info(Marker marker, String msg)                               { Clog.tag(marker.getName()).i(msg);                }
-    @Override public void info(Marker marker, String format, Object arg)                { Clog.tag(marker.getName()).i(format, arg);        }
-    @Override public void info(Marker marker, String format, Object arg1, Object arg2)  { Clog.tag(marker.getName()).i(format, arg1, arg2); }
-    @Override public void info(Marker marker, String format, Object... argArray)        { Clog.tag(marker.getName()).i(format, argArray);   }
-    @Override public void info(Marker marker, String msg, Throwable t)                  { Clog.tag(marker.getName()).i(msg, t);             }
-
-    @Override public void warn(String msg)                                              { Clog.tag(name).w(msg);                            }
-    @Override public void warn(String format, Object arg)                               { Clog.tag(name).w(format, arg);                    }
-    @Override public void warn(String format, Object arg1, Object arg2)                 { Clog.tag(name).w(format, arg1, arg2);             }
-    @Override public void warn(String format, Object... arguments)                      { Clog.tag(name).w(format, arguments);              }
-    @Override public void warn(String msg, Throwable t)                                 { Clog.tag(name).w(msg, t);                         }
-    @Override public void warn(Marker marker, String msg)                               { Clog.tag(marker.getName()).w(msg);                }
-    @Override public void warn(Marker marker, String format, Object arg)                { Clog.tag(marker.getName()).w(format, arg);        }
-    @Override public void warn(Marker marker, String format, Object arg1, Object arg2)  { Clog.tag(marker.getName()).w(format, arg1, arg2); }
-    @Override public void warn(Marker marker, String format, Object... argArray)        { Clog.tag(marker.getName()).w(format, argArray);   }
-    @Override public void warn(Marker marker, String msg, Throwable t)                  { Clog.tag(marker.getName()).w(msg, t);             }
-
-    @Override public void error(String msg)                                             { Clog.tag(name).e(msg);                            }
-    @Override public void error(String format, Object arg)                              { Clog.tag(name).e(format, arg);                    }
-    @Override public void error(String format, Object arg1, Object arg2)                { Clog.tag(name).e(format, arg1, arg2);             }
-    @Override public void error(String format, Object... arguments)                     { Clog.tag(name).e(format, arguments);              }
-    @Override public void error(String msg, Throwable t)                                { Clog.tag(name).e(msg, t);                         }
-    @Override public void error(Marker marker, String msg)                              { Clog.tag(marker.getName()).e(msg);                }
-    @Override public void error(Marker marker, String format, Object arg)               { Clog.tag(marker.getName()).e(format, arg);        }
-    @Override public void error(Marker marker, String format, Object arg1, Object arg2) { Clog.tag(marker.getName()).e(format, arg1, arg2); }
-    @Override public void error(Marker marker, String format, Object... argArray)       { Clog.tag(marker.getName()).e(format, argArray);   }
-    @Override public void error(Marker marker, String msg, Throwable t)                 { Clog.tag(marker.getName()).e(msg, t);             }
+    @Override public void trace(String msg)                                             { log(Clog.KEY_V, null, msg);                  }
+    @Override public void trace(String format, Object arg)                              { log(Clog.KEY_V, null, format, arg);          }
+    @Override public void trace(String format, Object arg1, Object arg2)                { log(Clog.KEY_V, null, format, arg1, arg2);   }
+    @Override public void trace(String format, Object... arguments)                     { log(Clog.KEY_V, null, format, arguments);    }
+    @Override public void trace(String msg, Throwable t)                                { log(Clog.KEY_V, null, msg, t);               }
+    @Override public void trace(Marker marker, String msg)                              { log(Clog.KEY_V, marker, msg);                }
+    @Override public void trace(Marker marker, String format, Object arg)               { log(Clog.KEY_V, marker, format, arg);        }
+    @Override public void trace(Marker marker, String format, Object arg1, Object arg2) { log(Clog.KEY_V, marker, format, arg1, arg2); }
+    @Override public void trace(Marker marker, String format, Object... argArray)       { log(Clog.KEY_V, marker, format, argArray);   }
+    @Override public void trace(Marker marker, String msg, Throwable t)                 { log(Clog.KEY_V, marker, msg, t);             }
+
+    @Override public void debug(String msg)                                             { log(Clog.KEY_D, null, msg);                  }
+    @Override public void debug(String format, Object arg)                              { log(Clog.KEY_D, null, format, arg);          }
+    @Override public void debug(String format, Object arg1, Object arg2)                { log(Clog.KEY_D, null, format, arg1, arg2);   }
+    @Override public void debug(String format, Object... arguments)                     { log(Clog.KEY_D, null, format, arguments);    }
+    @Override public void debug(String msg, Throwable t)                                { log(Clog.KEY_D, null, msg, t);               }
+    @Override public void debug(Marker marker, String msg)                              { log(Clog.KEY_D, marker, msg);                }
+    @Override public void debug(Marker marker, String format, Object arg)               { log(Clog.KEY_D, marker, format, arg);        }
+    @Override public void debug(Marker marker, String format, Object arg1, Object arg2) { log(Clog.KEY_D, marker, format, arg1, arg2); }
+    @Override public void debug(Marker marker, String format, Object... argArray)       { log(Clog.KEY_D, marker, format, argArray);   }
+    @Override public void debug(Marker marker, String msg, Throwable t)                 { log(Clog.KEY_D, marker, msg, t);             }
+
+    @Override public void info(String msg)                                              { log(Clog.KEY_I, null, msg);                  }
+    @Override public void info(String format, Object arg)                               { log(Clog.KEY_I, null, format, arg);          }
+    @Override public void info(String format, Object arg1, Object arg2)                 { log(Clog.KEY_I, null, format, arg1, arg2);   }
+    @Override public void info(String format, Object... arguments)                      { log(Clog.KEY_I, null, format, arguments);    }
+    @Override public void info(String msg, Throwable t)                                 { log(Clog.KEY_I, null, msg, t);               }
+    @Override public void info(Marker marker, String msg)                               { log(Clog.KEY_I, marker, msg);                }
+    @Override public void info(Marker marker, String format, Object arg)                { log(Clog.KEY_I, marker, format, arg);        }
+    @Override public void info(Marker marker, String format, Object arg1, Object arg2)  { log(Clog.KEY_I, marker, format, arg1, arg2); }
+    @Override public void info(Marker marker, String format, Object... argArray)        { log(Clog.KEY_I, marker, format, argArray);   }
+    @Override public void info(Marker marker, String msg, Throwable t)                  { log(Clog.KEY_I, marker, msg, t);             }
+
+    @Override public void warn(String msg)                                              { log(Clog.KEY_W, null, msg);                  }
+    @Override public void warn(String format, Object arg)                               { log(Clog.KEY_W, null, format, arg);          }
+    @Override public void warn(String format, Object arg1, Object arg2)                 { log(Clog.KEY_W, null, format, arg1, arg2);   }
+    @Override public void warn(String format, Object... arguments)                      { log(Clog.KEY_W, null, format, arguments);    }
+    @Override public void warn(String msg, Throwable t)                                 { log(Clog.KEY_W, null, msg, t);               }
+    @Override public void warn(Marker marker, String msg)                               { log(Clog.KEY_W, marker, msg);                }
+    @Override public void warn(Marker marker, String format, Object arg)                { log(Clog.KEY_W, marker, format, arg);        }
+    @Override public void warn(Marker marker, String format, Object arg1, Object arg2)  { log(Clog.KEY_W, marker, format, arg1, arg2); }
+    @Override public void warn(Marker marker, String format, Object... argArray)        { log(Clog.KEY_W, marker, format, argArray);   }
+    @Override public void warn(Marker marker, String msg, Throwable t)                  { log(Clog.KEY_W, marker, msg, t);             }
+
+    @Override public void error(String msg)                                             { log(Clog.KEY_E, null, msg);                  }
+    @Override public void error(String format, Object arg)                              { log(Clog.KEY_E, null, format, arg);          }
+    @Override public void error(String format, Object arg1, Object arg2)                { log(Clog.KEY_E, null, format, arg1, arg2);   }
+    @Override public void error(String format, Object... arguments)                     { log(Clog.KEY_E, null, format, arguments);    }
+    @Override public void error(String msg, Throwable t)                                { log(Clog.KEY_E, null, msg, t);               }
+    @Override public void error(Marker marker, String msg)                              { log(Clog.KEY_E, marker, msg);                }
+    @Override public void error(Marker marker, String format, Object arg)               { log(Clog.KEY_E, marker, format, arg);        }
+    @Override public void error(Marker marker, String format, Object arg1, Object arg2) { log(Clog.KEY_E, marker, format, arg1, arg2); }
+    @Override public void error(Marker marker, String format, Object... argArray)       { log(Clog.KEY_E, marker, format, argArray);   }
+    @Override public void error(Marker marker, String msg, Throwable t)                 { log(Clog.KEY_E, marker, msg, t);             }
 
 }
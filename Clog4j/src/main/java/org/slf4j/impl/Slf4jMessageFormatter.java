@@ -0,0 +1,165 @@
+package org.slf4j.impl;
+
+import com.caseyjbrooks.clog.AppendableClogFormatter;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Formats SLF4J messages, replacing each <code>{}</code> with the next argument in a single pass over the message,
+ * without parsing it as Clog markup. Escaping follows SLF4J's MessageFormatter: <code>\{}</code> is written as a
+ * literal <code>{}</code> without using an argument, and <code>\\{}</code> is written as a literal backslash followed by
+ * the argument. Placeholders without an argument are left as they are, and extra arguments are ignored. Arrays are
+ * written as their elements, and an argument whose toString() throws is written as <code>[FAILED toString()]</code>.
+ */
+final class Slf4jMessageFormatter implements AppendableClogFormatter {
+
+    static final Slf4jMessageFormatter INSTANCE = new Slf4jMessageFormatter();
+
+    private static final String DELIMITER = "{}";
+    private static final char ESCAPE_CHAR = '\\';
+
+    private Slf4jMessageFormatter() {
+
+    }
+
+    /**
+     * SLF4J treats a Throwable as the last argument as the exception to log, rather than as an argument of the message
+     *
+     * @param arguments  the arguments passed to the logger
+     * @return the last argument if it is a Throwable, otherwise null
+     */
+    static Throwable getThrowable(Object[] arguments) {
+        if(arguments == null || arguments.length == 0) {
+            return null;
+        }
+
+        Object last = arguments[arguments.length - 1];
+        return (last instanceof Throwable) ? (Throwable) last : null;
+    }
+
+    /**
+     * Get the arguments of a message without its trailing Throwable
+     *
+     * @param arguments  the arguments passed to the logger
+     * @return the arguments without the last one
+     */
+    static Object[] withoutThrowable(Object[] arguments) {
+        return Arrays.copyOf(arguments, arguments.length - 1);
+    }
+
+    @Override
+    public String format(String message, Object... params) {
+        if(message == null || params == null || params.length == 0 || message.indexOf(DELIMITER) == -1) {
+            return message;
+        }
+
+        StringBuilder output = new StringBuilder(message.length() + 16 * params.length);
+        try {
+            format(output, message, params);
+        }
+        catch(IOException e) {
+            // a StringBuilder never throws
+        }
+        return output.toString();
+    }
+
+    @Override
+    public void format(Appendable output, String message, Object... params) throws IOException {
+        if(message == null) {
+            return;
+        }
+
+        int start = 0;
+        int argCount = (params != null) ? params.length : 0;
+
+        for(int arg = 0; arg < argCount; arg++) {
+            int placeholder = message.indexOf(DELIMITER, start);
+            if(placeholder == -1) {
+                break;
+            }
+
+            if(isEscaped(message, placeholder)) {
+                if(!isEscaped(message, placeholder - 1)) {
+                    // an escaped placeholder is written without the escape character, and does not use an argument
+                    output.append(message, start, placeholder - 1).append('{');
+                    start = placeholder + 1;
+                    arg--;
+                }
+                else {
+                    // the escape character is itself escaped, so write one backslash and then the argument
+                    output.append(message, start, placeholder - 1);
+                    appendParameter(output, params[arg], null);
+                    start = placeholder + 2;
+                }
+            }
+            else {
+                output.append(message, start, placeholder);
+                appendParameter(output, params[arg], null);
+                start = placeholder + 2;
+            }
+        }
+
+        output.append(message, start, message.length());
+    }
+
+    private static boolean isEscaped(String message, int index) {
+        return index > 0 && message.charAt(index - 1) == ESCAPE_CHAR;
+    }
+
+    // the arrays being written are tracked so that an array which contains itself is not written forever
+    private static void appendParameter(Appendable output, Object param, Map<Object[], Boolean> seen) throws IOException {
+        if(param == null) {
+            output.append("null");
+        }
+        else if(!param.getClass().isArray()) {
+            appendObject(output, param);
+        }
+        else if(param instanceof Object[]) {
+            appendObjectArray(output, (Object[]) param, seen);
+        }
+        else if(param instanceof boolean[]) { output.append(Arrays.toString((boolean[]) param)); }
+        else if(param instanceof byte[])    { output.append(Arrays.toString((byte[]) param));    }
+        else if(param instanceof char[])    { output.append(Arrays.toString((char[]) param));    }
+        else if(param instanceof short[])   { output.append(Arrays.toString((short[]) param));   }
+        else if(param instanceof int[])     { output.append(Arrays.toString((int[]) param));     }
+        else if(param instanceof long[])    { output.append(Arrays.toString((long[]) param));    }
+        else if(param instanceof float[])   { output.append(Arrays.toString((float[]) param));   }
+        else if(param instanceof double[])  { output.append(Arrays.toString((double[]) param));  }
+    }
+
+    private static void appendObject(Appendable output, Object param) throws IOException {
+        String value;
+        try {
+            value = param.toString();
+        }
+        catch(Throwable t) {
+            value = "[FAILED toString()]";
+        }
+        output.append(value);
+    }
+
+    private static void appendObjectArray(Appendable output, Object[] param, Map<Object[], Boolean> seen) throws IOException {
+        if(seen == null) {
+            seen = new IdentityHashMap<>();
+        }
+
+        output.append('[');
+        if(!seen.containsKey(param)) {
+            seen.put(param, Boolean.TRUE);
+            for(int i = 0; i < param.length; i++) {
+                if(i > 0) {
+                    output.append(", ");
+                }
+                appendParameter(output, param[i], seen);
+            }
+            seen.remove(param);
+        }
+        else {
+            output.append("...");
+        }
+        output.append(']');
+    }
+}